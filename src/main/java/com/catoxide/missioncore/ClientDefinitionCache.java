@@ -0,0 +1,158 @@
+package com.catoxide.missioncore;
+
+import net.minecraft.Util;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.Tag;
+import net.minecraftforge.client.event.ClientPlayerNetworkEvent;
+import net.minecraftforge.fml.loading.FMLPaths;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// 客户端任务定义缓存：按内容哈希保存在磁盘上，跨会话和服务器复用，
+// 加入服务器时只下载哈希未命中的定义
+public class ClientDefinitionCache {
+    private static final int MAX_CACHED = 8192; // 磁盘缓存的最大定义数
+
+    private static final Map<Long, MissionDefinitionSummary> byHash = new LinkedHashMap<>(); // 按加入顺序淘汰
+    private static final Map<String, MissionDefinitionSummary> current = new HashMap<>();     // 当前服务器的定义
+    private static boolean loaded = false;
+
+    private static int outstandingEntries = 0; // 已请求但尚未收到的定义数
+    private static boolean dirty = false;       // 有未写入磁盘的定义
+
+    private static final Object SAVE_LOCK = new Object();  // 保护 pendingSave
+    private static final Object WRITE_LOCK = new Object(); // 只在IO线程上持有，保证同一时间只有一个写入
+    private static List<MissionDefinitionSummary> pendingSave; // 等待IO线程写入的数据
+
+    // 收到服务器的定义字典：命中缓存的直接使用，其余向服务器请求
+    public static void applyDictionary(Map<String, Long> dictionary) {
+        load();
+        current.clear();
+
+        List<String> missing = new ArrayList<>();
+        dictionary.forEach((definitionId, hash) -> {
+            MissionDefinitionSummary cached = byHash.get(hash);
+            if (cached != null && cached.getId().equals(definitionId)) {
+                current.put(definitionId, cached);
+            } else {
+                missing.add(definitionId);
+            }
+        });
+
+        MissionCore.LOGGER.debug("任务定义缓存命中 {}/{}", dictionary.size() - missing.size(), dictionary.size());
+        outstandingEntries = missing.size();
+        // 按服务器接受的上限分批请求
+        for (int from = 0; from < missing.size(); from += MissionDefinitionSync.MAX_REQUESTED_ENTRIES) {
+            int to = Math.min(from + MissionDefinitionSync.MAX_REQUESTED_ENTRIES, missing.size());
+            NetworkHandler.INSTANCE.sendToServer(new NetworkHandler.RequestDefinitionsPacket(
+                    new ArrayList<>(missing.subList(from, to))));
+        }
+    }
+
+    public static void addEntries(List<MissionDefinitionSummary> entries) {
+        load();
+        for (MissionDefinitionSummary entry : entries) {
+            byHash.remove(entry.getHash());
+            byHash.put(entry.getHash(), entry);
+            current.put(entry.getId(), entry);
+        }
+        dirty = true;
+
+        // 所有请求的定义都已收到时保存一次；服务器未返回的定义由断开连接时的保存兜底
+        outstandingEntries -= entries.size();
+        if (outstandingEntries <= 0) {
+            save();
+        }
+    }
+
+    // 断开连接时保存尚未写入的定义
+    public static void onLoggingOut(ClientPlayerNetworkEvent.LoggingOut event) {
+        outstandingEntries = 0;
+        save();
+    }
+
+    public static MissionDefinitionSummary get(String definitionId) {
+        return current.get(definitionId);
+    }
+
+    private static File getFile() {
+        return FMLPaths.GAMEDIR.get().resolve(MissionCore.MODID).resolve("definition_cache.dat").toFile();
+    }
+
+    private static void load() {
+        if (loaded) return;
+        loaded = true;
+
+        File file = getFile();
+        if (!file.isFile()) return;
+        try {
+            ListTag list = NbtIo.readCompressed(file).getList("definitions", Tag.TAG_COMPOUND);
+            for (int i = 0; i < list.size(); i++) {
+                MissionDefinitionSummary entry = MissionDefinitionSummary.load(list.getCompound(i));
+                byHash.put(entry.getHash(), entry);
+            }
+        } catch (IOException e) {
+            MissionCore.LOGGER.warn("读取任务定义缓存失败", e);
+        }
+    }
+
+    // 超出上限时淘汰最早加入且当前服务器未使用的定义，然后在IO线程序列化并写入磁盘
+    private static void save() {
+        if (!dirty) return;
+        dirty = false;
+
+        Iterator<MissionDefinitionSummary> iterator = byHash.values().iterator();
+        while (byHash.size() > MAX_CACHED && iterator.hasNext()) {
+            MissionDefinitionSummary entry = iterator.next();
+            if (current.get(entry.getId()) != entry) {
+                iterator.remove();
+            }
+        }
+
+        // 定义摘要不可变，只复制列表
+        synchronized (SAVE_LOCK) {
+            pendingSave = new ArrayList<>(byHash.values());
+        }
+        Util.ioPool().execute(ClientDefinitionCache::writePending);
+    }
+
+    // 多次保存只写入最新的一份；客户端线程只在交换 pendingSave 时短暂持有锁
+    private static void writePending() {
+        synchronized (WRITE_LOCK) {
+            List<MissionDefinitionSummary> entries;
+            synchronized (SAVE_LOCK) {
+                entries = pendingSave;
+                pendingSave = null;
+            }
+            if (entries == null) return;
+
+            ListTag list = new ListTag();
+            entries.forEach(entry -> list.add(entry.save()));
+            CompoundTag tag = new CompoundTag();
+            tag.put("definitions", list);
+
+            // 先写临时文件再替换，避免中断时留下不完整的缓存
+            Path file = getFile().toPath();
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                Files.createDirectories(file.getParent());
+                NbtIo.writeCompressed(tag, temp.toFile());
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                MissionCore.LOGGER.warn("写入任务定义缓存失败", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.catoxide.missioncore;
+
+public class DebugConfig {
+    // 触发器诊断输出开关，关闭时热路径上不构建任何诊断字符串
+    public static boolean traceTriggers = false;
+
+    // 方块更新（NeighborNotifyEvent）转储开关，红石密集区域会产生大量输出
+    public static boolean traceBlockUpdates = false;
+}
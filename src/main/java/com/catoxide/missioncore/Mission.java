@@ -1,43 +1,48 @@
 package com.catoxide.missioncore;
 
 import net.minecraft.nbt.CompoundTag;
-import net.minecraft.server.level.ServerPlayer;
 
 public class Mission {
-    private final String instanceId; // 新增：任务实例唯一ID
-    private final String definitionId; // 修改：改为引用任务定义ID
-    private String title;
+    private final int instanceId; // 任务实例句柄，外部字符串形式见 MissionInstanceManager.formatInstanceId
+    private final int definitionIndex; // 任务定义在 MissionRegistry 中的索引，定义数据不再按实例复制
     private boolean isShared;
 
-    public Mission(String instanceId, String definitionId, String title, boolean isShared) {
+    public Mission(int instanceId, int definitionIndex, boolean isShared) {
         this.instanceId = instanceId;
-        this.definitionId = definitionId;
-        this.title = title;
+        this.definitionIndex = definitionIndex;
         this.isShared = isShared;
     }
 
     // 添加getter方法
-    public String getInstanceId() { return instanceId; }
-    public String getDefinitionId() { return definitionId; }
-    public String getTitle() { return title; }
+    public int getInstanceId() { return instanceId; }
+    public int getDefinitionIndex() { return definitionIndex; }
+    public String getDefinitionId() { return MissionRegistry.getMissionId(definitionIndex); }
     public boolean isShared() { return isShared; } // 添加缺失的方法
 
-    // 修改序列化方法
+    // 当前加载的任务定义，定义被移除时返回 null
+    public MissionDefinition getDefinition() {
+        return MissionRegistry.getMission(definitionIndex);
+    }
+
+    public String getTitle() {
+        MissionDefinition def = getDefinition();
+        return def != null ? def.getTitle() : getDefinitionId();
+    }
+
+    // 索引只在本次运行内有效，序列化时保存定义ID
     public CompoundTag serializeNBT() {
         CompoundTag tag = new CompoundTag();
-        tag.putString("instanceId", instanceId);
-        tag.putString("definitionId", definitionId);
-        tag.putString("title", title);
+        tag.putInt("instanceId", instanceId);
+        tag.putString("definitionId", getDefinitionId());
         tag.putBoolean("isShared", isShared);
         return tag;
     }
 
     public static Mission deserializeNBT(CompoundTag tag) {
         return new Mission(
-                tag.getString("instanceId"),
-                tag.getString("definitionId"),
-                tag.getString("title"),
+                tag.getInt("instanceId"),
+                MissionRegistry.intern(tag.getString("definitionId")),
                 tag.getBoolean("isShared")
         );
     }
-}
\ No newline at end of file
+}
@@ -2,10 +2,12 @@ package com.catoxide.missioncore;
 
 import com.catoxide.missioncore.trigger.MissionTrigger;
 import com.google.gson.JsonObject;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -23,6 +25,11 @@ public class MissionAPI {
         MissionRegistry.registerMission(def);
     }
 
+    // 批量注册任务定义，注册大量定义时应使用此方法
+    public static void registerMissions(Collection<MissionDefinition> definitions) {
+        MissionRegistry.registerMissions(definitions);
+    }
+
     public static MissionDefinition getMission(String id) {
         return MissionRegistry.getMission(id);
     }
@@ -33,8 +40,8 @@ public class MissionAPI {
 
         player.getCapability(ModCapabilities.PLAYER_MISSIONS).ifPresent(data -> {
             // 创建任务实例
-            String instanceId = MissionInstanceManager.createMissionInstance(definitionId, false);
-            if (instanceId != null) {
+            int instanceId = MissionInstanceManager.createMissionInstance(definitionId, false);
+            if (instanceId != MissionInstanceManager.NO_INSTANCE) {
                 data.activateMissionInstance(instanceId);
             }
         });
@@ -54,8 +61,8 @@ public class MissionAPI {
 
         player.getCapability(ModCapabilities.PLAYER_MISSIONS).ifPresent(data -> {
             hasData.set(true);
-            for (String instanceId : data.getActivatedMissionInstances()) {
-                Mission mission = MissionInstanceManager.getMission(instanceId);
+            for (IntIterator it = data.getActivatedMissionInstances().iterator(); it.hasNext(); ) {
+                Mission mission = MissionInstanceManager.getMission(it.nextInt());
                 if (mission != null) {
                     missions.add(mission);
                 }
@@ -72,13 +79,13 @@ public class MissionAPI {
 
     public static boolean isMissionCompleted(ServerPlayer player, String instanceId) {
         // 检查任务是否完成
-        Mission mission = MissionInstanceManager.getMission(instanceId);
+        Mission mission = MissionInstanceManager.getMission(MissionInstanceManager.parseInstanceId(instanceId));
         if (mission == null) return false;
 
         if (mission.isShared()) {
             // 共享任务：从共享数据获取完成状态
             WorldSharedMissionData sharedData = WorldSharedMissionData.get((ServerLevel) player.level());
-            WorldSharedMissionData.SharedMission sharedMission = sharedData.getSharedMission(instanceId);
+            WorldSharedMissionData.SharedMission sharedMission = sharedData.getSharedMission(mission.getInstanceId());
             return sharedMission != null && sharedMission.completed;
         } else {
             // 个人任务：需要实现完成状态检查
@@ -86,25 +93,28 @@ public class MissionAPI {
         }
     }
 
-    public static void activateSharedMission(ServerLevel level, String definitionId, int target) {
+    // 返回新实例的ID，失败时返回 null
+    public static String activateSharedMission(ServerLevel level, String definitionId, int target) {
         WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
 
         // 创建任务实例
-        String instanceId = MissionInstanceManager.createMissionInstance(definitionId, true);
-        if (instanceId != null) {
-            sharedData.activateMission(instanceId, target);
+        int instanceId = MissionInstanceManager.createMissionInstance(definitionId, true);
+        if (instanceId == MissionInstanceManager.NO_INSTANCE) {
+            return null;
         }
+        sharedData.activateMission(level, instanceId, target);
+        return MissionInstanceManager.formatInstanceId(instanceId);
     }
 
     public static int getSharedMissionProgress(ServerLevel level, String instanceId) {
         WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
-        WorldSharedMissionData.SharedMission mission = sharedData.getSharedMission(instanceId);
+        WorldSharedMissionData.SharedMission mission = sharedData.getSharedMission(MissionInstanceManager.parseInstanceId(instanceId));
         return mission != null ? mission.progress : 0;
     }
 
     public static int getMissionTarget(ServerLevel level, String instanceId) {
         WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
-        WorldSharedMissionData.SharedMission mission = sharedData.getSharedMission(instanceId);
+        WorldSharedMissionData.SharedMission mission = sharedData.getSharedMission(MissionInstanceManager.parseInstanceId(instanceId));
         return mission != null ? mission.target : 0;
     }
 }
\ No newline at end of file
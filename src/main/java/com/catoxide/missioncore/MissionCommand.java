@@ -11,6 +11,8 @@ import net.minecraft.commands.arguments.EntityArgument;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntSet;
 
 import java.util.Collection;
 import java.util.Set;
@@ -30,7 +32,8 @@ public class MissionCommand {
                 if (context.getSource().getLevel() instanceof ServerLevel) {
                     ServerLevel level = (ServerLevel) context.getSource().getLevel();
                     WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
-                    return SharedSuggestionProvider.suggest(sharedData.sharedMissions.keySet(), builder);
+                    return SharedSuggestionProvider.suggest(sharedData.sharedMissions.keySet().intStream()
+                            .mapToObj(MissionInstanceManager::formatInstanceId), builder);
                 }
                 return builder.buildFuture();
             };
@@ -42,17 +45,18 @@ public class MissionCommand {
                     WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
 
                     // 只建议未完成的共享任务
-                    Set<String> activatableMissions = sharedData.sharedMissions.entrySet().stream()
-                            .filter(entry -> !entry.getValue().completed)
-                            .map(entry -> {
-                                Mission mission = MissionInstanceManager.getMission(entry.getKey());
+                    Set<String> activatableMissions = sharedData.sharedMissions.values().stream()
+                            .filter(sharedMission -> !sharedMission.completed)
+                            .map(sharedMission -> {
+                                String instanceId = MissionInstanceManager.formatInstanceId(sharedMission.instanceId);
+                                Mission mission = MissionInstanceManager.getMission(sharedMission.instanceId);
                                 if (mission != null) {
-                                    MissionDefinition def = MissionRegistry.getMission(mission.getDefinitionId());
+                                    MissionDefinition def = mission.getDefinition();
                                     if (def != null) {
-                                        return def.getTitle() + " (" + entry.getKey() + ")";
+                                        return def.getTitle() + " (" + instanceId + ")";
                                     }
                                 }
-                                return entry.getKey();
+                                return instanceId;
                             })
                             .collect(Collectors.toSet());
 
@@ -66,7 +70,8 @@ public class MissionCommand {
                 try {
                     ServerPlayer player = EntityArgument.getPlayer(context, "target");
                     return player.getCapability(ModCapabilities.PLAYER_MISSIONS)
-                            .map(data -> SharedSuggestionProvider.suggest(data.getActivatedMissionInstances(), builder))
+                            .map(data -> SharedSuggestionProvider.suggest(data.getActivatedMissionInstances().intStream()
+                                    .mapToObj(MissionInstanceManager::formatInstanceId), builder))
                             .orElse(builder.buildFuture());
                 } catch (Exception e) {
                     return builder.buildFuture();
@@ -111,6 +116,14 @@ public class MissionCommand {
                                 )
                         )
                 )
+                .then(Commands.literal("debug")
+                        .then(Commands.literal("triggers")
+                                .executes(ctx -> toggleTraceTriggers(ctx.getSource()))
+                        )
+                        .then(Commands.literal("block_updates")
+                                .executes(ctx -> toggleTraceBlockUpdates(ctx.getSource()))
+                        )
+                )
                 .then(Commands.literal("shared")
                         .then(Commands.literal("add")
                                 .then(Commands.argument("definition_id", StringArgumentType.string())
@@ -196,17 +209,15 @@ public class MissionCommand {
         }
 
         // 创建新任务实例
-        String instanceId = MissionInstanceManager.createMissionInstance(definitionId, true);
-        if (instanceId == null) {
+        int instanceId = MissionInstanceManager.createMissionInstance(definitionId, true);
+        if (instanceId == MissionInstanceManager.NO_INSTANCE) {
             source.sendFailure(Component.literal("创建任务实例失败"));
             return 0;
         }
 
         // 添加到共享任务数据，使用任务定义中的目标值
         WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
-        sharedData.activateMission(instanceId, def.getTarget());
-
-        Mission mission = MissionInstanceManager.getMission(instanceId);
+        sharedData.activateMission(level, instanceId, def.getTarget());
 
         source.sendSuccess(() ->
                 Component.literal("已添加共享任务实例: " + def.getTitle() +
@@ -242,10 +253,11 @@ public class MissionCommand {
         if (sharedData.sharedMissions.isEmpty()) {
             source.sendSuccess(() -> Component.literal(" - 没有活动的共享任务"), false);
         } else {
-            sharedData.sharedMissions.forEach((instanceId, mission) -> {
+            sharedData.sharedMissions.values().forEach(mission -> {
+                int instanceId = mission.instanceId;
                 Mission missionObj = MissionInstanceManager.getMission(instanceId);
                 if (missionObj != null) {
-                    MissionDefinition def = MissionRegistry.getMission(missionObj.getDefinitionId());
+                    MissionDefinition def = missionObj.getDefinition();
                     if (def != null) {
                         final String status = def.getTitle() + " (进度: " + mission.progress + "/" + mission.target +
                                 ", 实例ID: " + instanceId + ")" + (mission.completed ? " §a已完成" : "");
@@ -269,17 +281,18 @@ public class MissionCommand {
     // 列出玩家任务
     private static int listPlayerMissions(CommandSourceStack source, ServerPlayer player) {
         player.getCapability(ModCapabilities.PLAYER_MISSIONS).ifPresent(data -> {
-            Set<String> activatedInstances = data.getActivatedMissionInstances();
+            IntSet activatedInstances = data.getActivatedMissionInstances();
             source.sendSuccess(() -> Component.literal("玩家 " + player.getScoreboardName() + " 的任务 (" +
                     activatedInstances.size() + "):"), false);
 
             if (activatedInstances.isEmpty()) {
                 source.sendSuccess(() -> Component.literal(" - 没有激活的任务"), false);
             } else {
-                for (String instanceId : activatedInstances) {
+                for (IntIterator it = activatedInstances.iterator(); it.hasNext(); ) {
+                    int instanceId = it.nextInt();
                     Mission mission = MissionInstanceManager.getMission(instanceId);
                     if (mission != null) {
-                        MissionDefinition def = MissionRegistry.getMission(mission.getDefinitionId());
+                        MissionDefinition def = mission.getDefinition();
                         if (def != null) {
                             // 创建最终变量用于lambda表达式
                             final StringBuilder statusBuilder = new StringBuilder();
@@ -372,6 +385,22 @@ public class MissionCommand {
         return 1;
     }
 
+    private static int toggleTraceTriggers(CommandSourceStack source) {
+        DebugConfig.traceTriggers = !DebugConfig.traceTriggers;
+        String status = DebugConfig.traceTriggers ? "§a启用" : "§c禁用";
+        source.sendSuccess(() ->
+                Component.literal("触发器调试追踪已" + status), true);
+        return 1;
+    }
+
+    private static int toggleTraceBlockUpdates(CommandSourceStack source) {
+        DebugConfig.traceBlockUpdates = !DebugConfig.traceBlockUpdates;
+        String status = DebugConfig.traceBlockUpdates ? "§a启用" : "§c禁用";
+        source.sendSuccess(() ->
+                Component.literal("方块更新调试追踪已" + status), true);
+        return 1;
+    }
+
     // 移除共享任务
     private static int removeSharedMission(CommandSourceStack source, String instanceId) {
         if (!(source.getLevel() instanceof ServerLevel)) {
@@ -381,24 +410,26 @@ public class MissionCommand {
 
         ServerLevel level = (ServerLevel) source.getLevel();
         WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
+        int instance = MissionInstanceManager.parseInstanceId(instanceId);
 
         // 检查任务是否存在
-        WorldSharedMissionData.SharedMission mission = sharedData.getSharedMission(instanceId);
+        WorldSharedMissionData.SharedMission mission = sharedData.getSharedMission(instance);
         if (mission == null) {
             source.sendFailure(Component.literal("共享任务实例不存在: " + instanceId));
             return 0;
         }
 
         // 从共享数据中移除任务
-        sharedData.sharedMissions.remove(instanceId);
-        sharedData.setDirty();
+        sharedData.removeMission(level, instance);
 
         // 从实例管理器移除
-        MissionInstanceManager.removeMission(instanceId);
+        MissionInstanceManager.removeMission(instance);
+        MissionTriggerIndex.removeInstance(instance);
+        MissionSubscriptions.removeInstance(instance);
 
-        Mission missionObj = MissionInstanceManager.getMission(instanceId);
+        Mission missionObj = MissionInstanceManager.getMission(instance);
         if (missionObj != null) {
-            MissionDefinition def = MissionRegistry.getMission(missionObj.getDefinitionId());
+            MissionDefinition def = missionObj.getDefinition();
             if (def != null) {
                 source.sendSuccess(() ->
                         Component.literal("已移除共享任务: " + def.getTitle()), true);
@@ -423,20 +454,21 @@ public class MissionCommand {
 
         ServerLevel level = (ServerLevel) source.getLevel();
         WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
+        int instance = MissionInstanceManager.parseInstanceId(instanceId);
 
         // 检查任务是否存在
-        WorldSharedMissionData.SharedMission mission = sharedData.getSharedMission(instanceId);
+        WorldSharedMissionData.SharedMission mission = sharedData.getSharedMission(instance);
         if (mission == null) {
             source.sendFailure(Component.literal("共享任务实例不存在: " + instanceId));
             return 0;
         }
 
         // 更新进度
-        sharedData.updateMissionProgress(level, instanceId, amount);
+        sharedData.updateMissionProgress(level, instance, amount);
 
-        Mission missionObj = MissionInstanceManager.getMission(instanceId);
+        Mission missionObj = MissionInstanceManager.getMission(instance);
         if (missionObj != null) {
-            MissionDefinition def = MissionRegistry.getMission(missionObj.getDefinitionId());
+            MissionDefinition def = missionObj.getDefinition();
             if (def != null) {
                 source.sendSuccess(() ->
                         Component.literal("已为共享任务增加进度: " + def.getTitle() + " (+" + amount + ")"), true);
@@ -454,7 +486,8 @@ public class MissionCommand {
     // 激活玩家任务 - 直接使用实例ID
     private static int activatePlayerMission(CommandSourceStack source, ServerPlayer player, String instanceId) {
         // 检查任务实例是否存在且是共享任务
-        Mission mission = MissionInstanceManager.getMission(instanceId);
+        int instance = MissionInstanceManager.parseInstanceId(instanceId);
+        Mission mission = MissionInstanceManager.getMission(instance);
         if (mission == null || !mission.isShared()) {
             source.sendFailure(Component.literal("无效的任务实例或不是共享任务: " + instanceId));
             return 0;
@@ -468,16 +501,16 @@ public class MissionCommand {
 
         ServerLevel level = (ServerLevel) player.level();
         WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
-        if (sharedData.getSharedMission(instanceId) == null) {
+        if (sharedData.getSharedMission(instance) == null) {
             source.sendFailure(Component.literal("共享任务不存在: " + instanceId));
             return 0;
         }
 
         player.getCapability(ModCapabilities.PLAYER_MISSIONS).ifPresent(data -> {
-            if (!data.hasMissionInstanceActivated(instanceId)) {
-                data.activateMissionInstance(instanceId);
+            if (!data.hasMissionInstanceActivated(instance)) {
+                data.activateMissionInstance(instance);
 
-                MissionDefinition def = MissionRegistry.getMission(mission.getDefinitionId());
+                MissionDefinition def = mission.getDefinition();
                 if (def != null) {
                     source.sendSuccess(() ->
                             Component.literal("已为玩家 " + player.getScoreboardName() + " 激活任务: " + def.getTitle()), true);
@@ -494,13 +527,14 @@ public class MissionCommand {
 
     // 取消激活玩家任务 - 直接使用实例ID
     private static int deactivatePlayerMission(CommandSourceStack source, ServerPlayer player, String instanceId) {
+        int instance = MissionInstanceManager.parseInstanceId(instanceId);
         player.getCapability(ModCapabilities.PLAYER_MISSIONS).ifPresent(data -> {
-            if (data.hasMissionInstanceActivated(instanceId)) {
-                data.deactivateMissionInstance(instanceId);
+            if (data.hasMissionInstanceActivated(instance)) {
+                data.deactivateMissionInstance(instance);
 
-                Mission mission = MissionInstanceManager.getMission(instanceId);
+                Mission mission = MissionInstanceManager.getMission(instance);
                 if (mission != null) {
-                    MissionDefinition def = MissionRegistry.getMission(mission.getDefinitionId());
+                    MissionDefinition def = mission.getDefinition();
                     if (def != null) {
                         source.sendSuccess(() ->
                                 Component.literal("已为玩家 " + player.getScoreboardName() + " 取消激活任务: " + def.getTitle()), true);
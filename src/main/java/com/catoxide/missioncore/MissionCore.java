@@ -12,6 +12,8 @@ import net.minecraftforge.event.RegisterCommandsEvent;
 import net.minecraftforge.event.TickEvent;
 import net.minecraftforge.event.entity.player.PlayerEvent;
 import net.minecraftforge.event.level.BlockEvent;
+import net.minecraftforge.event.server.ServerStartingEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
 import net.minecraftforge.eventbus.api.IEventBus;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
@@ -59,31 +61,66 @@ public class MissionCore {
     public void onPlayerLogin(PlayerEvent.PlayerLoggedInEvent event) {
         if (event.getEntity() instanceof ServerPlayer) {
             ServerPlayer player = (ServerPlayer) event.getEntity();
-            MissionCore.LOGGER.info("玩家 {} 登录，同步任务数据", player.getName().getString());
+            MissionCore.LOGGER.info("玩家 {} 登录，订阅任务数据", player.getName().getString());
+
+            // 建立触发器分发索引
+            MissionTriggerIndex.indexPlayer(player);
 
             if (player.level() instanceof ServerLevel) {
                 ServerLevel level = (ServerLevel) player.level();
 
-                // 同步共享任务数据
+                // 订阅玩家激活的共享任务；数据由客户端登录后发起的续传请求同步，只发送离线期间的变化
                 WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
-                MissionCore.LOGGER.info("同步 {} 个共享任务给玩家 {}", sharedData.sharedMissions.size(), player.getName().getString());
-                sharedData.syncToAllPlayers(level);
+                player.getCapability(ModCapabilities.PLAYER_MISSIONS).ifPresent(data ->
+                        sharedData.subscribe(player, data.getActivatedMissionInstances()));
             }
         }
     }
 
+    @SubscribeEvent
+    public void onPlayerLogout(PlayerEvent.PlayerLoggedOutEvent event) {
+        if (event.getEntity() instanceof ServerPlayer) {
+            MissionTriggerIndex.removePlayer(event.getEntity().getUUID());
+            MissionSubscriptions.unsubscribeAll(event.getEntity().getUUID());
+            MissionSync.disconnect(event.getEntity().getUUID());
+        }
+    }
+
+    @SubscribeEvent
+    public void onPlayerRespawn(PlayerEvent.PlayerRespawnEvent event) {
+        // 死亡重生后能力数据可能已变化，重建索引
+        if (event.getEntity() instanceof ServerPlayer player) {
+            MissionTriggerIndex.indexPlayer(player);
+        }
+    }
+
     @SubscribeEvent
     public void onServerTick(TickEvent.ServerTickEvent event) {
         if (event.phase == TickEvent.Phase.END) {
-            if (event.getServer().getTickCount() % 100 == 0) {
-                for (ServerPlayer player : event.getServer().getPlayerList().getPlayers()) {
-                    // 使用正确的获取世界方法
-                    WorldSharedMissionData sharedData = WorldSharedMissionData.get((ServerLevel) player.level());
-                }
-            }
+            // 结算本tick缓冲的共享任务进度并同步变化
+            WorldSharedMissionData.flushAll();
+            // 继续发送未完成的任务快照
+            MissionSync.tick(event.getServer());
         }
     }
 
+    @SubscribeEvent
+    public void onServerStarting(ServerStartingEvent event) {
+        // 加载持久化的任务实例，玩家和共享任务数据中的实例句柄依赖于此
+        MissionInstanceManager.load(event.getServer());
+    }
+
+    @SubscribeEvent
+    public void onServerStopped(ServerStoppedEvent event) {
+        PlayerSpatialIndex.clear();
+        MissionTriggerIndex.clear();
+        MissionInstanceManager.clear();
+        WorldSharedMissionData.clearPending();
+        MissionProgressJournal.closeAll();
+        MissionSubscriptions.clear();
+        MissionSync.clear();
+    }
+
     @SubscribeEvent
     public void addReloadListeners(AddReloadListenerEvent event) {
         event.addListener(new MissionLoader());
@@ -101,6 +138,9 @@ public class MissionCore {
 
     @SubscribeEvent
     public void clientSetup(final FMLClientSetupEvent event) {
+        // 登录服务器时请求任务数据续传
+        MinecraftForge.EVENT_BUS.addListener(NetworkHandler.ClientMissionData::onLoggingIn);
+        MinecraftForge.EVENT_BUS.addListener(ClientDefinitionCache::onLoggingOut);
         event.enqueueWork(() -> {
             System.out.println("MissionCore 客户端设置完成");
             // 确保配置类初始化（如果尚未存在）
@@ -130,6 +170,7 @@ public class MissionCore {
     }
     @SubscribeEvent
     public void onBlockStateChangeDebug(BlockEvent.NeighborNotifyEvent event) {
+        if (!DebugConfig.traceBlockUpdates) return;
         if (!(event.getLevel() instanceof ServerLevel level)) return;
 
         BlockPos pos = event.getPos();
@@ -1,42 +1,68 @@
 package com.catoxide.missioncore;
 
 import com.catoxide.missioncore.trigger.MissionTrigger;
+import com.google.common.hash.Hashing;
 import com.google.gson.JsonObject;
 
+import java.nio.charset.StandardCharsets;
+
 public class MissionDefinition {
     private final String id;
     private final String title;
     private final int target;
     private final JsonObject triggerConfig;
     private final boolean isShared;
-    private MissionTrigger trigger; // 预配置的触发器
+    private final MissionTrigger trigger; // 预配置的触发器
+    private final long contentHash; // 客户端显示所需内容的哈希，客户端按此缓存定义
+    private final long sourceHash;  // 源 JSON 的哈希，重载时哈希不变的定义直接复用
+    private int index = MissionRegistry.NO_DEFINITION; // 注册表中的稠密索引
 
     public MissionDefinition(String id, String title, int target, JsonObject triggerConfig, boolean isShared) {
+        this(id, title, target, triggerConfig, isShared, 0L);
+    }
+
+    public MissionDefinition(String id, String title, int target, JsonObject triggerConfig, boolean isShared, long sourceHash) {
+        this(id, title, target, triggerConfig, isShared, sourceHash, createTrigger(id, triggerConfig));
+    }
+
+    // 使用已配置好的触发器（来自编译缓存），跳过 configure
+    MissionDefinition(String id, String title, int target, JsonObject triggerConfig, boolean isShared, long sourceHash,
+                      MissionTrigger trigger) {
         this.id = id;
         this.title = title;
         this.target = target;
         this.triggerConfig = triggerConfig;
         this.isShared = isShared;
+        this.sourceHash = sourceHash;
+        this.trigger = trigger;
+        this.contentHash = Hashing.sha256()
+                .hashString(id + '\0' + title + '\0' + target + '\0' + getTriggerSummary(), StandardCharsets.UTF_8)
+                .asLong();
+    }
 
-        // 预配置触发器 - 为每个任务创建新的触发器实例
-        if (triggerConfig.has("type")) {
-            String triggerType = triggerConfig.get("type").getAsString();
-            MissionTrigger prototype = MissionRegistry.getTriggerPrototype(triggerType);
-            if (prototype != null) {
-                try {
-                    // 创建新的触发器实例
-                    this.trigger = prototype.createNewInstance();
-                    this.trigger.configure(triggerConfig);
-                    MissionCore.LOGGER.info("任务 {} 触发器配置成功: {}", id, triggerType);
-                } catch (Exception e) {
-                    MissionCore.LOGGER.error("预配置触发器失败: {}", triggerType, e);
-                    this.trigger = null;
-                }
-            } else {
-                MissionCore.LOGGER.error("未知的触发器类型: {}", triggerType);
-            }
-        } else {
+    // 预配置触发器 - 为每个任务创建新的触发器实例
+    static MissionTrigger createTrigger(String id, JsonObject triggerConfig) {
+        if (!triggerConfig.has("type")) {
             MissionCore.LOGGER.error("任务 {} 缺少触发器类型配置", id);
+            return null;
+        }
+
+        String triggerType = triggerConfig.get("type").getAsString();
+        MissionTrigger prototype = MissionRegistry.getTriggerPrototype(triggerType);
+        if (prototype == null) {
+            MissionCore.LOGGER.error("未知的触发器类型: {}", triggerType);
+            return null;
+        }
+
+        try {
+            // 创建新的触发器实例
+            MissionTrigger trigger = prototype.createNewInstance();
+            trigger.configure(triggerConfig);
+            MissionCore.LOGGER.debug("任务 {} 触发器配置成功: {}", id, triggerType);
+            return trigger;
+        } catch (Exception e) {
+            MissionCore.LOGGER.error("预配置触发器失败: {}", triggerType, e);
+            return null;
         }
     }
 
@@ -47,4 +73,12 @@ public class MissionDefinition {
     public JsonObject getTriggerConfig() { return triggerConfig; }
     public boolean isShared() {return isShared;}
     public MissionTrigger getTrigger() { return trigger; }
+    public long getContentHash() { return contentHash; }
+    public long getSourceHash() { return sourceHash; }
+    public int getIndex() { return index; }
+
+    void setIndex(int index) { this.index = index; }
+
+    // 触发器配置的紧凑描述，随定义同步给客户端
+    public String getTriggerSummary() { return triggerConfig.toString(); }
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+package com.catoxide.missioncore;
+
+import com.catoxide.missioncore.trigger.MissionTrigger;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.netty.buffer.Unpooled;
+import net.minecraft.core.Registry;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.world.level.block.Block;
+import net.minecraftforge.fml.loading.FMLPaths;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// 编译后任务定义的磁盘缓存：任务文件内容和注册表指纹都未变化时，启动直接读取缓存，跳过JSON解析和触发器配置
+public class MissionDefinitionCache {
+    private static final int MAGIC = 0x4D435043; // "MCPC"
+    private static final int CACHE_VERSION = 1;
+    private static final int MAX_TRIGGER_CONFIG_LENGTH = 1 << 18; // 触发器配置JSON的最大长度
+
+    private static Path getFile() {
+        return FMLPaths.GAMEDIR.get().resolve(MissionCore.MODID).resolve("compiled_missions.bin");
+    }
+
+    // 读取与任务文件哈希匹配的缓存，不存在或已失效时返回 null
+    public static synchronized List<MissionDefinition> load(long sourceHash) {
+        Path file = getFile();
+        if (!Files.isRegularFile(file)) return null;
+
+        FriendlyByteBuf buffer;
+        try {
+            buffer = new FriendlyByteBuf(Unpooled.wrappedBuffer(Files.readAllBytes(file)));
+        } catch (IOException e) {
+            MissionCore.LOGGER.warn("读取任务定义编译缓存失败", e);
+            return null;
+        }
+
+        try {
+            if (buffer.readInt() != MAGIC || buffer.readVarInt() != CACHE_VERSION) return null;
+            if (buffer.readLong() != sourceHash || buffer.readLong() != getRegistryFingerprint()) return null;
+
+            int count = buffer.readVarInt();
+            List<MissionDefinition> definitions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                definitions.add(readDefinition(buffer));
+            }
+            return definitions;
+        } catch (RuntimeException e) {
+            MissionCore.LOGGER.warn("任务定义编译缓存已损坏，重新解析任务文件", e);
+            return null;
+        }
+    }
+
+    public static synchronized void save(long sourceHash, List<MissionDefinition> definitions) {
+        FriendlyByteBuf buffer = new FriendlyByteBuf(Unpooled.buffer());
+        try {
+            buffer.writeInt(MAGIC);
+            buffer.writeVarInt(CACHE_VERSION);
+            buffer.writeLong(sourceHash);
+            buffer.writeLong(getRegistryFingerprint());
+            buffer.writeVarInt(definitions.size());
+            for (MissionDefinition definition : definitions) {
+                writeDefinition(buffer, definition);
+            }
+        } catch (RuntimeException e) {
+            MissionCore.LOGGER.warn("无法生成任务定义编译缓存", e);
+            return;
+        }
+
+        // 先写临时文件再替换，避免中断时留下不完整的缓存
+        Path file = getFile();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            byte[] bytes = new byte[buffer.readableBytes()];
+            buffer.readBytes(bytes);
+            Files.write(temp, bytes);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            MissionCore.LOGGER.warn("写入任务定义编译缓存失败", e);
+        }
+    }
+
+    private static void writeDefinition(FriendlyByteBuf buffer, MissionDefinition definition) {
+        buffer.writeUtf(definition.getId());
+        buffer.writeUtf(definition.getTitle());
+        buffer.writeVarInt(definition.getTarget());
+        buffer.writeBoolean(definition.isShared());
+        buffer.writeLong(definition.getSourceHash());
+        buffer.writeUtf(definition.getTriggerSummary(), MAX_TRIGGER_CONFIG_LENGTH);
+
+        // 触发器支持时写入编译结果，否则加载时重新 configure
+        byte[] compiled = null;
+        MissionTrigger trigger = definition.getTrigger();
+        if (trigger != null) {
+            FriendlyByteBuf triggerBuffer = new FriendlyByteBuf(Unpooled.buffer());
+            if (trigger.writeCompiled(triggerBuffer)) {
+                compiled = new byte[triggerBuffer.readableBytes()];
+                triggerBuffer.readBytes(compiled);
+            }
+        }
+        buffer.writeNullable(compiled, FriendlyByteBuf::writeByteArray);
+    }
+
+    private static MissionDefinition readDefinition(FriendlyByteBuf buffer) {
+        String id = buffer.readUtf();
+        String title = buffer.readUtf();
+        int target = buffer.readVarInt();
+        boolean isShared = buffer.readBoolean();
+        long sourceHash = buffer.readLong();
+        JsonObject triggerConfig = JsonParser.parseString(buffer.readUtf(MAX_TRIGGER_CONFIG_LENGTH)).getAsJsonObject();
+        byte[] compiled = buffer.readNullable(FriendlyByteBuf::readByteArray);
+
+        // 同一进程内源JSON未变化的定义直接复用，保留触发器状态
+        MissionDefinition existing = MissionRegistry.getMission(id);
+        if (existing != null && existing.getSourceHash() == sourceHash) {
+            return existing;
+        }
+
+        MissionTrigger trigger = compiled != null ? readTrigger(triggerConfig, compiled) : null;
+        if (trigger == null) {
+            return new MissionDefinition(id, title, target, triggerConfig, isShared, sourceHash);
+        }
+        return new MissionDefinition(id, title, target, triggerConfig, isShared, sourceHash, trigger);
+    }
+
+    private static MissionTrigger readTrigger(JsonObject triggerConfig, byte[] compiled) {
+        if (!triggerConfig.has("type")) return null;
+        MissionTrigger prototype = MissionRegistry.getTriggerPrototype(triggerConfig.get("type").getAsString());
+        if (prototype == null) return null;
+
+        MissionTrigger trigger = prototype.createNewInstance();
+        return trigger.readCompiled(new FriendlyByteBuf(Unpooled.wrappedBuffer(compiled))) ? trigger : null;
+    }
+
+    // 注册表指纹：编译结果中保存的是数字ID，方块、实体、物品注册表或触发器原型变化后缓存失效
+    private static long getRegistryFingerprint() {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hashRegistry(hasher, BuiltInRegistries.BLOCK);
+        hashRegistry(hasher, BuiltInRegistries.ENTITY_TYPE);
+        hashRegistry(hasher, BuiltInRegistries.ITEM);
+        hasher.putInt(Block.BLOCK_STATE_REGISTRY.size());
+        MissionRegistry.getTriggerPrototypeNames().stream().sorted().forEach(name ->
+                hasher.putString(name, StandardCharsets.UTF_8)
+                        .putString(MissionRegistry.getTriggerPrototype(name).getClass().getName(), StandardCharsets.UTF_8));
+
+        return hasher.hash().asLong();
+    }
+
+    // 按数字ID顺序哈希注册名
+    private static <T> void hashRegistry(Hasher hasher, Registry<T> registry) {
+        hasher.putInt(registry.size());
+        for (T entry : registry) {
+            hasher.putString(String.valueOf(registry.getKey(entry)), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.catoxide.missioncore;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.network.FriendlyByteBuf;
+
+// 客户端显示任务所需的定义内容，按内容哈希同步和缓存
+public class MissionDefinitionSummary {
+    private final String id;
+    private final String title;
+    private final int target;
+    private final String triggerSummary;
+    private final long hash;
+
+    public MissionDefinitionSummary(String id, String title, int target, String triggerSummary, long hash) {
+        this.id = id;
+        this.title = title;
+        this.target = target;
+        this.triggerSummary = triggerSummary;
+        this.hash = hash;
+    }
+
+    public static MissionDefinitionSummary of(MissionDefinition definition) {
+        return new MissionDefinitionSummary(definition.getId(), definition.getTitle(), definition.getTarget(),
+                definition.getTriggerSummary(), definition.getContentHash());
+    }
+
+    public String getId() { return id; }
+    public String getTitle() { return title; }
+    public int getTarget() { return target; }
+    public String getTriggerSummary() { return triggerSummary; }
+    public long getHash() { return hash; }
+
+    public void encode(FriendlyByteBuf buffer) {
+        buffer.writeUtf(id);
+        buffer.writeUtf(title);
+        buffer.writeVarInt(target);
+        buffer.writeUtf(triggerSummary);
+        buffer.writeLong(hash);
+    }
+
+    public static MissionDefinitionSummary decode(FriendlyByteBuf buffer) {
+        return new MissionDefinitionSummary(buffer.readUtf(), buffer.readUtf(), buffer.readVarInt(),
+                buffer.readUtf(), buffer.readLong());
+    }
+
+    public CompoundTag save() {
+        CompoundTag tag = new CompoundTag();
+        tag.putString("id", id);
+        tag.putString("title", title);
+        tag.putInt("target", target);
+        tag.putString("trigger", triggerSummary);
+        tag.putLong("hash", hash);
+        return tag;
+    }
+
+    public static MissionDefinitionSummary load(CompoundTag tag) {
+        return new MissionDefinitionSummary(tag.getString("id"), tag.getString("title"), tag.getInt("target"),
+                tag.getString("trigger"), tag.getLong("hash"));
+    }
+}
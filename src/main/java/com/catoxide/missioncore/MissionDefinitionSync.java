@@ -0,0 +1,64 @@
+package com.catoxide.missioncore;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.network.PacketDistributor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 服务端任务定义同步：先发送 (定义ID, 内容哈希) 字典，客户端只请求本地缓存中没有的定义
+public class MissionDefinitionSync {
+    private static final int ENTRIES_PER_PACKET = 256;    // 每个数据包包含的定义数
+    public static final int MAX_REQUESTED_ENTRIES = 8192;  // 单次请求的最大定义数，客户端按此分批请求
+
+    public static void sendDictionary(ServerPlayer player) {
+        NetworkHandler.INSTANCE.send(PacketDistributor.PLAYER.with(() -> player), createDictionary());
+    }
+
+    // 数据包重载后向所有在线玩家发送新的字典
+    public static void broadcastDictionary(MinecraftServer server) {
+        if (server == null || server.getPlayerList().getPlayerCount() == 0) return;
+        NetworkHandler.INSTANCE.send(PacketDistributor.ALL.noArg(), createDictionary());
+    }
+
+    private static NetworkHandler.DefinitionDictionaryPacket createDictionary() {
+        Map<String, Long> dictionary = new HashMap<>();
+        for (MissionDefinition definition : MissionRegistry.getAllMissions()) {
+            dictionary.put(definition.getId(), definition.getContentHash());
+        }
+        return new NetworkHandler.DefinitionDictionaryPacket(dictionary);
+    }
+
+    // 发送客户端缺少的定义
+    public static void sendEntries(ServerPlayer player, List<String> definitionIds) {
+        // 超出上限时只发送前面的部分，其余由客户端下一批请求获取
+        if (definitionIds.size() > MAX_REQUESTED_ENTRIES) {
+            MissionCore.LOGGER.warn("玩家 {} 单次请求的任务定义过多: {}，只发送前 {} 个",
+                    player.getName().getString(), definitionIds.size(), MAX_REQUESTED_ENTRIES);
+            definitionIds = definitionIds.subList(0, MAX_REQUESTED_ENTRIES);
+        }
+
+        List<MissionDefinitionSummary> entries = new ArrayList<>();
+        for (String definitionId : definitionIds) {
+            MissionDefinition definition = MissionRegistry.getMission(definitionId);
+            if (definition == null) continue;
+
+            entries.add(MissionDefinitionSummary.of(definition));
+            if (entries.size() == ENTRIES_PER_PACKET) {
+                send(player, entries);
+                entries = new ArrayList<>();
+            }
+        }
+        if (!entries.isEmpty()) {
+            send(player, entries);
+        }
+    }
+
+    private static void send(ServerPlayer player, List<MissionDefinitionSummary> entries) {
+        NetworkHandler.INSTANCE.send(PacketDistributor.PLAYER.with(() -> player),
+                new NetworkHandler.DefinitionEntriesPacket(entries));
+    }
+}
@@ -1,86 +1,110 @@
 package com.catoxide.missioncore;
 
-import com.catoxide.missioncore.trigger.MissionTrigger;
-import com.google.gson.JsonObject;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import com.catoxide.missioncore.trigger.TickCooldowns;
+import net.minecraft.resources.ResourceKey;
 import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.EntityType;
 import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.Level;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.EntityEvent;
+import net.minecraftforge.event.entity.EntityJoinLevelEvent;
+import net.minecraftforge.event.entity.EntityLeaveLevelEvent;
 import net.minecraftforge.event.entity.living.LivingDeathEvent;
 import net.minecraftforge.event.level.BlockEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
 import net.minecraftforge.event.entity.player.PlayerInteractEvent;
+import net.minecraftforge.eventbus.api.Event;
+import net.minecraftforge.eventbus.api.EventPriority;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
 public class MissionEventListener {
+    // 本tick内累计的击杀数：世界 -> 玩家 -> 实体类型 -> 击杀数，在tick结束时一次性结算
+    private final Map<ServerLevel, Map<UUID, Reference2IntOpenHashMap<EntityType<?>>>> pendingKills = new IdentityHashMap<>();
+
+    // 同一位置的方块更新通知在冷却内只处理一次；这是事件源层面的去重，对所有玩家和任务一致
+    private static final int BLOCK_UPDATE_COOLDOWN_TICKS = 2; // 2刻（100毫秒）
+    private final Map<ResourceKey<Level>, TickCooldowns> blockUpdateCooldowns = new HashMap<>();
+
     @SubscribeEvent
     public void onEntityDeath(LivingDeathEvent event) {
         if (!(event.getEntity().getCommandSenderWorld() instanceof ServerLevel level)) return;
         if (!(event.getSource().getEntity() instanceof Player player)) return;
 
-        WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
+        // 击杀任务只记录计数，tick结束时合并为一次进度更新
+        EntityType<?> type = event.getEntity().getType();
+        if (!MissionTriggerIndex.getKillWatchers(player.getUUID(), type).isEmpty()) {
+            pendingKills.computeIfAbsent(level, l -> new HashMap<>())
+                    .computeIfAbsent(player.getUUID(), id -> new Reference2IntOpenHashMap<>())
+                    .addTo(type, 1);
+        }
 
-        // 获取玩家激活的任务实例
-        player.getCapability(ModCapabilities.PLAYER_MISSIONS).ifPresent(playerData -> {
-            for (String instanceId : playerData.getActivatedMissionInstances()) {
-                Mission mission = MissionInstanceManager.getMission(instanceId);
-                if (mission == null) continue;
+        // 不在倒排索引中的触发器仍然逐个事件处理
+        dispatch(level, player, event, LivingDeathEvent.class, "击杀实体");
+    }
 
-                MissionDefinition def = MissionRegistry.getMission(mission.getDefinitionId());
-                if (def == null) continue;
+    // 先于共享任务进度结算执行，使本tick的击杀在同一tick内同步
+    @SubscribeEvent(priority = EventPriority.HIGH)
+    public void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END || pendingKills.isEmpty()) return;
 
-                // 使用预配置的触发器
-                MissionTrigger trigger = def.getTrigger();
-                if (trigger == null) {
-                    continue;
+        pendingKills.forEach((level, byPlayer) -> {
+            WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
+            byPlayer.forEach((playerId, kills) -> {
+                for (Reference2IntMap.Entry<EntityType<?>> entry : kills.reference2IntEntrySet()) {
+                    applyKills(level, sharedData, playerId, entry.getKey(), entry.getIntValue());
                 }
+            });
+        });
+        pendingKills.clear();
+    }
 
-                if (trigger.shouldTrigger(player, event)) {
-                    if (mission.isShared()) {
-                        // 更新共享任务进度
-                        sharedData.updateMissionProgress(level, instanceId, 1);
-                        MissionCore.LOGGER.info("玩家 {} 完成共享任务进度: {}", player.getName().getString(), instanceId);
-                    } else {
-                        // TODO: 更新玩家个人任务进度
-                        MissionCore.LOGGER.info("玩家 {} 完成个人任务进度: {}", player.getName().getString(), instanceId);
-                    }
-                }
+    // 将同一玩家对同一实体类型的击杀合并为一次进度增量
+    private static void applyKills(ServerLevel level, WorldSharedMissionData sharedData, UUID playerId,
+                                   EntityType<?> type, int count) {
+        List<MissionTriggerIndex.ActiveMission> watchers = MissionTriggerIndex.getKillWatchers(playerId, type);
+        for (int i = 0; i < watchers.size(); i++) {
+            MissionTriggerIndex.ActiveMission active = watchers.get(i);
+            if (active.mission.isShared()) {
+                sharedData.updateMissionProgress(level, active.instanceId, count);
+                MissionCore.LOGGER.info("玩家 {} 击杀 {} x{}，更新共享任务进度: {}", playerId, EntityType.getKey(type), count, active.instanceId);
+            } else {
+                // TODO: 更新玩家个人任务进度
+                MissionCore.LOGGER.info("玩家 {} 击杀 {} x{}，更新个人任务进度: {}", playerId, EntityType.getKey(type), count, active.instanceId);
             }
-        });
+        }
+    }
+
+    // 冷却以游戏刻为键，不能带到下一个存档（集成服务器切换世界时游戏刻可能更小）
+    @SubscribeEvent
+    public void onServerStopped(ServerStoppedEvent event) {
+        blockUpdateCooldowns.clear();
+        pendingKills.clear();
     }
 
     @SubscribeEvent
     public void onBlockBreak(BlockEvent.BreakEvent event) {
         if (event.isCanceled()) return; // 检查事件是否被取消
         if (!(event.getLevel() instanceof ServerLevel level)) return;
-        Player player = event.getPlayer();
 
-        WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
-
-        // 获取玩家激活的任务实例
-        player.getCapability(ModCapabilities.PLAYER_MISSIONS).ifPresent(playerData -> {
-            for (String instanceId : playerData.getActivatedMissionInstances()) {
-                Mission mission = MissionInstanceManager.getMission(instanceId);
-                if (mission == null) continue;
-
-                MissionDefinition def = MissionRegistry.getMission(mission.getDefinitionId());
-                if (def == null) continue;
-
-                // 使用预配置的触发器
-                MissionTrigger trigger = def.getTrigger();
-                if (trigger == null) {
-                    continue;
-                }
+        // 通过方块倒排索引找到该玩家关注该方块的任务，未被关注的方块只需两次查表
+        Player player = event.getPlayer();
+        List<MissionTriggerIndex.ActiveMission> watchers =
+                MissionTriggerIndex.getBlockBreakWatchers(player.getUUID(), event.getState().getBlock());
+        if (!watchers.isEmpty()) {
+            fire(level, WorldSharedMissionData.get(level), player, event, watchers, "破坏方块");
+        }
 
-                if (trigger.shouldTrigger(player, event)) {
-                    if (mission.isShared()) {
-                        // 更新共享任务进度
-                        sharedData.updateMissionProgress(level, instanceId, 1);
-                        MissionCore.LOGGER.info("玩家 {} 破坏方块，更新共享任务进度: {}", player.getName().getString(), instanceId);
-                    } else {
-                        // TODO: 更新玩家个人任务进度
-                        MissionCore.LOGGER.info("玩家 {} 破坏方块，更新个人任务进度: {}", player.getName().getString(), instanceId);
-                    }
-                }
-            }
-        });
+        dispatch(level, player, event, BlockEvent.BreakEvent.class, "破坏方块");
     }
 
     @SubscribeEvent
@@ -88,48 +112,19 @@ public class MissionEventListener {
         if (event.isCanceled()) return; // 检查事件是否被取消
         if (!(event.getLevel() instanceof ServerLevel level)) return;
 
-        // 获取附近的玩家（简化处理，实际可能需要更精确的玩家检测）
-        Player foundPlayer = null;
-        for (Player p : level.players()) {
-            if (p.blockPosition().closerThan(event.getPos(), 16)) { // 16格范围内的玩家
-                foundPlayer = p;
-                break;
-            }
-        }
-
-        if (foundPlayer == null) return;
-
-        final Player player = foundPlayer; // 创建 final 引用
-        WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
-
-        // 获取玩家激活的任务实例
-        player.getCapability(ModCapabilities.PLAYER_MISSIONS).ifPresent(playerData -> {
-            for (String instanceId : playerData.getActivatedMissionInstances()) {
-                final String finalInstanceId = instanceId; // 创建 final 引用
-                Mission mission = MissionInstanceManager.getMission(finalInstanceId);
-                if (mission == null) continue;
+        // 没有任何已加载任务关注该方块时直接返回
+        if (!MissionRegistry.isWatchedStateBlock(event.getState().getBlock())) return;
 
-                MissionDefinition def = MissionRegistry.getMission(mission.getDefinitionId());
-                if (def == null) continue;
+        // 防止重复触发 - 同一位置的连续通知
+        TickCooldowns cooldowns = blockUpdateCooldowns.computeIfAbsent(level.dimension(),
+                dimension -> new TickCooldowns(BLOCK_UPDATE_COOLDOWN_TICKS));
+        if (!cooldowns.tryAcquire(event.getPos().asLong(), level.getGameTime())) return;
 
-                // 使用预配置的触发器
-                MissionTrigger trigger = def.getTrigger();
-                if (trigger == null) {
-                    continue;
-                }
+        // 归属给最近与该位置交互的玩家，否则取16格内最近的玩家
+        Player foundPlayer = PlayerSpatialIndex.findActor(level, event.getPos());
+        if (foundPlayer == null) return;
 
-                if (trigger.shouldTrigger(player, event)) {
-                    if (mission.isShared()) {
-                        // 更新共享任务进度
-                        sharedData.updateMissionProgress(level, finalInstanceId, 1);
-                        MissionCore.LOGGER.info("玩家 {} 附近方块状态变化，更新共享任务进度: {}", player.getName().getString(), finalInstanceId);
-                    } else {
-                        // TODO: 更新玩家个人任务进度
-                        MissionCore.LOGGER.info("玩家 {} 附近方块状态变化，更新个人任务进度: {}", player.getName().getString(), finalInstanceId);
-                    }
-                }
-            }
-        });
+        dispatch(level, foundPlayer, event, BlockEvent.NeighborNotifyEvent.class, "附近方块状态变化");
     }
 
     @SubscribeEvent
@@ -137,38 +132,62 @@ public class MissionEventListener {
         // 不检查事件是否被取消，因为我们想要记录所有交互尝试
         if (!(event.getEntity().level() instanceof ServerLevel level)) return;
 
-        Player player = event.getEntity();
-        WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
+        // 记录点击方块的玩家，用于方块状态变化的归属
+        if ((event instanceof PlayerInteractEvent.RightClickBlock || event instanceof PlayerInteractEvent.LeftClickBlock)
+                && event.getEntity() instanceof ServerPlayer serverPlayer) {
+            PlayerSpatialIndex.recordInteraction(level, event.getPos(), serverPlayer);
+        }
 
-        // 获取玩家激活的任务实例
-        player.getCapability(ModCapabilities.PLAYER_MISSIONS).ifPresent(playerData -> {
-            for (String instanceId : playerData.getActivatedMissionInstances()) {
-                Mission mission = MissionInstanceManager.getMission(instanceId);
-                if (mission == null) continue;
+        dispatch(level, event.getEntity(), event, PlayerInteractEvent.class, "交互行为");
+    }
 
-                MissionDefinition def = MissionRegistry.getMission(mission.getDefinitionId());
-                if (def == null) continue;
+    @SubscribeEvent
+    public void onEntityJoinLevel(EntityJoinLevelEvent event) {
+        if (event.getEntity() instanceof ServerPlayer player && event.getLevel() instanceof ServerLevel level) {
+            PlayerSpatialIndex.add(player, level);
+        }
+    }
 
-                // 使用预配置的触发器
-                MissionTrigger trigger = def.getTrigger();
-                if (trigger == null) {
-                    continue;
-                }
+    @SubscribeEvent
+    public void onEntityLeaveLevel(EntityLeaveLevelEvent event) {
+        if (event.getEntity() instanceof ServerPlayer player) {
+            PlayerSpatialIndex.remove(player);
+        }
+    }
 
-                // 检查触发器是否应该触发
-                boolean shouldTrigger = trigger.shouldTrigger(player, event);
-
-                if (shouldTrigger) {
-                    if (mission.isShared()) {
-                        // 更新共享任务进度
-                        sharedData.updateMissionProgress(level, instanceId, 1);
-                        MissionCore.LOGGER.info("玩家 {} 交互行为，更新共享任务进度: {}", player.getName().getString(), instanceId);
-                    } else {
-                        // TODO: 更新玩家个人任务进度
-                        MissionCore.LOGGER.info("玩家 {} 交互行为，更新个人任务进度: {}", player.getName().getString(), instanceId);
-                    }
-                }
+    @SubscribeEvent
+    public void onEnteringSection(EntityEvent.EnteringSection event) {
+        if (event.didChunkChange() && event.getEntity() instanceof ServerPlayer player) {
+            PlayerSpatialIndex.move(player, event.getNewPos());
+        }
+    }
+
+    // 只遍历消费该事件类型的任务实例（以及接收所有事件的通用触发器）
+    private static void dispatch(ServerLevel level, Player player, Event event,
+                                 Class<? extends Event> eventType, String action) {
+        List<MissionTriggerIndex.ActiveMission> typed = MissionTriggerIndex.getActiveMissions(player, eventType);
+        List<MissionTriggerIndex.ActiveMission> generic = MissionTriggerIndex.getActiveMissions(player, Event.class);
+        if (typed.isEmpty() && generic.isEmpty()) return;
+
+        WorldSharedMissionData sharedData = WorldSharedMissionData.get(level);
+        fire(level, sharedData, player, event, typed, action);
+        fire(level, sharedData, player, event, generic, action);
+    }
+
+    private static void fire(ServerLevel level, WorldSharedMissionData sharedData, Player player, Event event,
+                             List<MissionTriggerIndex.ActiveMission> missions, String action) {
+        for (int i = 0; i < missions.size(); i++) {
+            MissionTriggerIndex.ActiveMission active = missions.get(i);
+            if (!active.trigger.shouldTrigger(player, event, active.state)) continue;
+
+            if (active.mission.isShared()) {
+                // 更新共享任务进度
+                sharedData.updateMissionProgress(level, active.instanceId, 1);
+                MissionCore.LOGGER.info("玩家 {} {}，更新共享任务进度: {}", player.getName().getString(), action, active.instanceId);
+            } else {
+                // TODO: 更新玩家个人任务进度
+                MissionCore.LOGGER.info("玩家 {} {}，更新个人任务进度: {}", player.getName().getString(), action, active.instanceId);
             }
-        });
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,192 @@
+package com.catoxide.missioncore;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.Tag;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.saveddata.SavedData;
+import net.minecraft.world.level.storage.LevelResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+// 任务实例存储：保存在主世界。主文件只记录句柄分配，实例按句柄分页保存到独立文件，
+// 每次保存只重写有变化的页
+public class MissionInstanceData extends SavedData {
+    private static final String DATA_NAME = "missioncore_instances";
+    private static final int PAGE_BITS = 10; // 每页 1024 个句柄
+    private static final int RESERVE_BLOCK = 1024; // 每次预留并立即保存的句柄数
+
+    private int nextInstanceId = 0;
+    // 已写入主文件的句柄上限：崩溃后从该值继续分配，共享任务日志中重放出的句柄不会被再次分配
+    private int reservedInstanceId = 0;
+    private File dataFile;
+
+    private final Int2ObjectOpenHashMap<Mission> instances = new Int2ObjectOpenHashMap<>();
+    private final IntOpenHashSet dirtyPages = new IntOpenHashSet();
+    private boolean pagesLoaded = false;
+
+    public static MissionInstanceData get(MinecraftServer server) {
+        MissionInstanceData data = server.overworld().getDataStorage().computeIfAbsent(
+                MissionInstanceData::load,
+                MissionInstanceData::new,
+                DATA_NAME
+        );
+        if (!data.pagesLoaded) {
+            File dataDirectory = server.getWorldPath(LevelResource.ROOT).resolve("data").toFile();
+            data.dataFile = new File(dataDirectory, DATA_NAME + ".dat");
+            data.loadPages(getPageDirectory(dataDirectory));
+        }
+        return data;
+    }
+
+    private static Path getPageDirectory(File dataDirectory) {
+        return dataDirectory.toPath().resolve(DATA_NAME);
+    }
+
+    // 分配新的实例句柄；用完预留的句柄时立即保存新的上限
+    public int allocate() {
+        if (nextInstanceId >= reservedInstanceId) {
+            reservedInstanceId = nextInstanceId + RESERVE_BLOCK;
+            setDirty();
+            if (dataFile != null) super.save(dataFile);
+        }
+        setDirty();
+        return nextInstanceId++;
+    }
+
+    public Mission get(int instanceId) {
+        return instances.get(instanceId);
+    }
+
+    public void put(Mission mission) {
+        instances.put(mission.getInstanceId(), mission);
+        markDirty(mission.getInstanceId());
+    }
+
+    // 加入实例并立即写入其所在页：共享任务的进度由日志保证崩溃后可恢复，实例本身也必须在此之前落盘
+    public void putDurable(Mission mission) {
+        put(mission);
+        if (dataFile == null) return;
+
+        int page = mission.getInstanceId() >>> PAGE_BITS;
+        Path directory = getPageDirectory(dataFile.getParentFile());
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            MissionCore.LOGGER.error("无法创建任务实例目录: {}", directory, e);
+            return;
+        }
+        if (writePage(directory, page)) {
+            dirtyPages.remove(page);
+        }
+    }
+
+    public void remove(int instanceId) {
+        if (instances.remove(instanceId) != null) {
+            markDirty(instanceId);
+        }
+    }
+
+    Int2ObjectOpenHashMap<Mission> getInstances() {
+        return instances;
+    }
+
+    private void markDirty(int instanceId) {
+        dirtyPages.add(instanceId >>> PAGE_BITS);
+        setDirty();
+    }
+
+    @Override
+    public CompoundTag save(CompoundTag tag) {
+        tag.putInt("nextInstanceId", Math.max(nextInstanceId, reservedInstanceId));
+        return tag;
+    }
+
+    // 保存主文件后写入有变化的页
+    @Override
+    public void save(File file) {
+        super.save(file);
+        if (dirtyPages.isEmpty()) return;
+
+        Path directory = getPageDirectory(file.getParentFile());
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            MissionCore.LOGGER.error("无法创建任务实例目录: {}", directory, e);
+            return;
+        }
+
+        int written = 0;
+        for (IntIterator it = dirtyPages.iterator(); it.hasNext(); ) {
+            int page = it.nextInt();
+            if (writePage(directory, page)) {
+                it.remove();
+                written++;
+            }
+        }
+        if (!dirtyPages.isEmpty()) setDirty(); // 写入失败的页留到下次保存
+        MissionCore.LOGGER.debug("保存任务实例: {} 页", written);
+    }
+
+    private boolean writePage(Path directory, int page) {
+        ListTag list = new ListTag();
+        int first = page << PAGE_BITS;
+        for (int i = 0; i < 1 << PAGE_BITS; i++) {
+            Mission mission = instances.get(first + i);
+            if (mission != null) list.add(mission.serializeNBT());
+        }
+
+        Path file = directory.resolve("page_" + page + ".dat");
+        try {
+            if (list.isEmpty()) {
+                Files.deleteIfExists(file);
+                return true;
+            }
+
+            // 先写临时文件再替换，避免中断时留下不完整的页
+            CompoundTag tag = new CompoundTag();
+            tag.put("missionInstances", list);
+            Path temp = directory.resolve("page_" + page + ".dat.tmp");
+            NbtIo.writeCompressed(tag, temp.toFile());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            MissionCore.LOGGER.error("保存任务实例页失败: {}", file, e);
+            return false;
+        }
+    }
+
+    private void loadPages(Path directory) {
+        pagesLoaded = true;
+        File[] files = directory.toFile().listFiles((dir, name) -> name.startsWith("page_") && name.endsWith(".dat"));
+        if (files == null) return;
+
+        for (File file : files) {
+            try {
+                ListTag list = NbtIo.readCompressed(file).getList("missionInstances", Tag.TAG_COMPOUND);
+                for (int i = 0; i < list.size(); i++) {
+                    Mission mission = Mission.deserializeNBT(list.getCompound(i));
+                    instances.put(mission.getInstanceId(), mission);
+                }
+            } catch (IOException e) {
+                MissionCore.LOGGER.error("读取任务实例页失败: {}", file, e);
+            }
+        }
+        MissionCore.LOGGER.info("已加载 {} 个任务实例", instances.size());
+    }
+
+    public static MissionInstanceData load(CompoundTag tag) {
+        MissionInstanceData data = new MissionInstanceData();
+        data.nextInstanceId = tag.getInt("nextInstanceId");
+        data.reservedInstanceId = data.nextInstanceId;
+        return data;
+    }
+}
@@ -1,71 +1,75 @@
 package com.catoxide.missioncore;
 
-import net.minecraft.nbt.CompoundTag;
-import net.minecraft.nbt.ListTag;
-import net.minecraft.nbt.Tag;
-
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
-import java.util.UUID;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntSets;
+import net.minecraft.server.MinecraftServer;
 
 public class MissionInstanceManager {
-    private static final Map<String, Mission> missionInstances = new HashMap<>();
+    // 无效的实例句柄
+    public static final int NO_INSTANCE = -1;
+
+    // 当前服务器的实例存储，服务器启动时加载
+    private static MissionInstanceData store;
+
+    // 服务器启动时从主世界加载任务实例
+    public static void load(MinecraftServer server) {
+        store = MissionInstanceData.get(server);
+    }
+
+    public static void clear() {
+        store = null;
+    }
 
-    // 创建新任务实例
-    public static String createMissionInstance(String definitionId, boolean isShared) {
+    // 创建新任务实例，返回实例句柄，失败时返回 NO_INSTANCE
+    public static int createMissionInstance(String definitionId, boolean isShared) {
         MissionDefinition def = MissionRegistry.getMission(definitionId);
         if (def == null) {
             MissionCore.LOGGER.error("未知的任务定义ID: {}", definitionId);
-            return null;
+            return NO_INSTANCE;
+        }
+        if (store == null) {
+            MissionCore.LOGGER.error("服务器未启动，无法创建任务实例: {}", definitionId);
+            return NO_INSTANCE;
         }
 
-        String instanceId = UUID.randomUUID().toString(); // 生成唯一ID
-        Mission mission = new Mission(instanceId, definitionId, def.getTitle(), isShared);
-        missionInstances.put(instanceId, mission);
-
+        int instanceId = store.allocate();
+        Mission mission = new Mission(instanceId, def.getIndex(), isShared);
+        if (isShared) {
+            // 共享任务的激活和进度写入日志，崩溃后重放时实例必须能找到
+            store.putDurable(mission);
+        } else {
+            store.put(mission);
+        }
         return instanceId;
     }
 
     // 获取任务实例
-    public static Mission getMission(String instanceId) {
-        return missionInstances.get(instanceId);
+    public static Mission getMission(int instanceId) {
+        return store != null ? store.get(instanceId) : null;
     }
 
     // 移除任务实例
-    public static void removeMission(String instanceId) {
-        missionInstances.remove(instanceId);
+    public static void removeMission(int instanceId) {
+        if (store != null) store.remove(instanceId);
     }
 
     // 获取所有实例ID
-    public static Set<String> getAllInstanceIds() {
-        return missionInstances.keySet();
+    public static IntSet getAllInstanceIds() {
+        return store != null ? IntSets.unmodifiable(store.getInstances().keySet()) : IntSets.EMPTY_SET;
     }
 
-    // 序列化所有任务实例
-    public static CompoundTag serializeAll() {
-        CompoundTag nbt = new CompoundTag();
-        ListTag list = new ListTag();
-
-        for (Mission mission : missionInstances.values()) {
-            CompoundTag missionTag = mission.serializeNBT();
-            list.add(missionTag);
-        }
-
-        nbt.put("missionInstances", list);
-        return nbt;
+    // 实例句柄的外部字符串形式，只用于命令和API
+    public static String formatInstanceId(int instanceId) {
+        return Integer.toString(instanceId);
     }
 
-    // 反序列化所有任务实例
-    public static void deserializeAll(CompoundTag nbt) {
-        missionInstances.clear();
-        if (nbt.contains("missionInstances", Tag.TAG_LIST)) {
-            ListTag list = nbt.getList("missionInstances", Tag.TAG_COMPOUND);
-            for (int i = 0; i < list.size(); i++) {
-                CompoundTag missionTag = list.getCompound(i);
-                Mission mission = Mission.deserializeNBT(missionTag);
-                missionInstances.put(mission.getInstanceId(), mission);
-            }
+    // 解析命令或API传入的实例ID，格式不正确时返回 NO_INSTANCE
+    public static int parseInstanceId(String instanceId) {
+        try {
+            int handle = Integer.parseInt(instanceId);
+            return handle >= 0 ? handle : NO_INSTANCE;
+        } catch (NumberFormatException e) {
+            return NO_INSTANCE;
         }
     }
-}
\ No newline at end of file
+}
@@ -1,134 +1,337 @@
 package com.catoxide.missioncore;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.PackResources;
+import net.minecraft.server.packs.resources.IoSupplier;
 import net.minecraft.server.packs.resources.Resource;
 import net.minecraft.server.packs.resources.ResourceManager;
 import net.minecraft.server.packs.resources.SimplePreparableReloadListener;
 import net.minecraft.util.profiling.ProfilerFiller;
+import net.minecraftforge.server.ServerLifecycleHooks;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.stream.Collectors;
 
-public class MissionLoader extends SimplePreparableReloadListener<Map<ResourceLocation, JsonObject>> {
+// 任务定义加载：在后台重载线程上并行发现、解析并构建所有 missions/*.json，主线程只负责发布
+public class MissionLoader extends SimplePreparableReloadListener<List<MissionDefinition>> {
     private static final Logger LOGGER = LogManager.getLogger();
-    private static final Gson GSON = new GsonBuilder().create();
 
-    // 使用新的 ResourceLocation 构造方式
-    private static final ResourceLocation MISSION_FILE = ResourceLocation.parse("missioncore:missions/global_missions.json");
+    private static final String MISSION_DIRECTORY = "missions";
+    // 数据包中没有任何任务文件时使用模组自带的默认任务
+    private static final String CLASSPATH_FALLBACK = "/assets/missioncore/missions/global_missions.json";
+    private static final ResourceLocation CLASSPATH_FILE = ResourceLocation.parse("missioncore:missions/global_missions.json");
 
-    @Override
-    protected Map<ResourceLocation, JsonObject> prepare(ResourceManager manager, ProfilerFiller profiler) {
-        Map<ResourceLocation, JsonObject> missions = new HashMap<>();
-        ResourceLocation[] paths = {
-                MISSION_FILE,
-                ResourceLocation.parse("missioncore:global_missions.json")
-        };
-
-        for (ResourceLocation path : paths) {
-            try {
-                Optional<Resource> resourceOpt = manager.getResource(path);
-                if (resourceOpt.isPresent()) {
-                    try (InputStream stream = resourceOpt.get().open()) {
-                        JsonElement jsonElement = GSON.fromJson(new InputStreamReader(stream), JsonElement.class);
-                        JsonObject wrapper = new JsonObject();
-
-                        if (jsonElement.isJsonArray()) {
-                            wrapper.add("missions", jsonElement.getAsJsonArray());
-                        } else {
-                            wrapper = jsonElement.getAsJsonObject();
-                        }
-
-                        missions.put(path, wrapper);
-                        LOGGER.info("成功加载任务文件: {}", path);
-                        return missions;
-                    }
-                }
-            } catch (Exception e) {
-                LOGGER.error("加载任务文件失败: {}", path, e);
+    // 从某个文件中构建出的任务定义，按数据包优先级和文件路径排序后合并
+    private static class ParsedMission {
+        final MissionDefinition definition;
+        final ResourceLocation file;
+
+        ParsedMission(MissionDefinition definition, ResourceLocation file) {
+            this.definition = definition;
+            this.file = file;
+        }
+    }
+
+    // 每次只向 JsonReader 提供一个字符，使其不能预读，已读取字符的行列号即为 JsonReader 实际消费到的位置。
+    // 底层由 BufferedReader 缓冲，逐字符读取只多一次方法调用
+    private static class PositionReader extends Reader {
+        private final Reader in;
+        int line = 1;
+        int column = 0; // 最后读取的字符所在列，从1开始
+
+        PositionReader(Reader in) {
+            this.in = new BufferedReader(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = in.read();
+            if (c == '\n') {
+                line++;
+                column = 0;
+            } else if (c >= 0) {
+                column++;
             }
+            return c;
         }
 
-        // 所有路径都失败时尝试类路径
-        tryLoadFromClasspath(missions);
-        return missions;
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            int c = read();
+            if (c < 0) return -1;
+            buffer[offset] = (char) c;
+            return 1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        // 最后读取的字符的位置
+        String describe() {
+            return "第 " + line + " 行第 " + column + " 列";
+        }
     }
 
-    // 修改类路径加载方法
-    private void tryLoadFromClasspath(Map<ResourceLocation, JsonObject> missions) {
-        String classpathPath = "/assets/missioncore/missions/global_missions.json";
-        try (InputStream stream = getClass().getResourceAsStream(classpathPath)) {
-            if (stream != null) {
-                JsonElement jsonElement = GSON.fromJson(new InputStreamReader(stream), JsonElement.class);
-                JsonObject wrapper = new JsonObject();
-
-                if (jsonElement.isJsonArray()) {
-                    wrapper.add("missions", jsonElement.getAsJsonArray());
-                } else {
-                    wrapper = jsonElement.getAsJsonObject();
+    // 一个任务文件：只保存内容哈希，解析时重新流式读取，不在内存中保留整个文件
+    private static class SourceFile {
+        final ResourceLocation file;
+        final int packPriority;
+        final IoSupplier<InputStream> opener;
+        final HashCode hash;
+
+        SourceFile(ResourceLocation file, int packPriority, IoSupplier<InputStream> opener, HashCode hash) {
+            this.file = file;
+            this.packPriority = packPriority;
+            this.opener = opener;
+            this.hash = hash;
+        }
+    }
+
+    // 合并规则：同一路径的文件由优先级最高的数据包提供；
+    // 同一任务ID出现在多个文件中时，优先级高的数据包覆盖低的，同一数据包内按文件路径排序，后者覆盖前者
+    @Override
+    protected List<MissionDefinition> prepare(ResourceManager manager, ProfilerFiller profiler) {
+        Map<String, Integer> packPriorities = new HashMap<>();
+        List<PackResources> packs = manager.listPacks().toList();
+        for (int i = 0; i < packs.size(); i++) {
+            packPriorities.put(packs.get(i).packId(), i);
+        }
+
+        Map<ResourceLocation, Resource> resources = manager.listResources(MISSION_DIRECTORY,
+                location -> location.getPath().endsWith(".json"));
+
+        // 并行哈希所有文件；prepare 运行在后台重载线程池中，并行流复用该线程池
+        List<SourceFile> files = resources.entrySet().parallelStream()
+                .map(entry -> hashFile(entry.getKey(), entry.getValue()::open,
+                        packPriorities.getOrDefault(entry.getValue().sourcePackId(), -1)))
+                .filter(Objects::nonNull)
+                .sorted(Comparator.comparingInt((SourceFile file) -> file.packPriority)
+                        .thenComparing(file -> file.file.toString()))
+                .collect(Collectors.toList());
+
+        if (files.isEmpty() && getClass().getResource(CLASSPATH_FALLBACK) != null) {
+            LOGGER.info("数据包中没有任务文件，从类路径加载默认任务");
+            SourceFile fallback = hashFile(CLASSPATH_FILE, () -> getClass().getResourceAsStream(CLASSPATH_FALLBACK), -1);
+            if (fallback != null) files.add(fallback);
+        }
+
+        // 所有任务文件内容未变化时直接使用编译缓存
+        long sourceHash = hashSources(files);
+        List<MissionDefinition> cached = MissionDefinitionCache.load(sourceHash);
+        if (cached != null) {
+            LOGGER.debug("任务文件未变化，从编译缓存加载 {} 个任务定义", cached.size());
+            return cached;
+        }
+
+        // 并行流式解析各文件，每读到一个任务元素就构建定义（触发器配置和注册表ID解析）
+        List<List<ParsedMission>> parsed = files.parallelStream()
+                .map(MissionLoader::parseFile)
+                .collect(Collectors.toList());
+
+        Map<String, ParsedMission> merged = new LinkedHashMap<>();
+        for (List<ParsedMission> fileMissions : parsed) {
+            for (ParsedMission mission : fileMissions) {
+                ParsedMission overridden = merged.put(mission.definition.getId(), mission);
+                if (overridden != null) {
+                    LOGGER.debug("任务 {} 在 {} 中的定义覆盖了 {}", mission.definition.getId(), mission.file, overridden.file);
                 }
+            }
+        }
+
+        List<MissionDefinition> definitions = new ArrayList<>(merged.size());
+        merged.values().forEach(mission -> definitions.add(mission.definition));
+
+        MissionDefinitionCache.save(sourceHash, definitions);
+        LOGGER.debug("从 {} 个文件中解析出 {} 个任务定义", files.size(), definitions.size());
+        return definitions;
+    }
 
-                missions.put(MISSION_FILE, wrapper);
-                LOGGER.info("成功从类路径加载任务文件");
+    private static SourceFile hashFile(ResourceLocation file, IoSupplier<InputStream> opener, int packPriority) {
+        try (InputStream stream = opener.get()) {
+            Hasher hasher = Hashing.sha256().newHasher();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) > 0) {
+                hasher.putBytes(buffer, 0, read);
             }
+            return new SourceFile(file, packPriority, opener, hasher.hash());
         } catch (Exception e) {
-            LOGGER.error("类路径加载失败", e);
+            LOGGER.error("加载任务文件失败: {}", file, e);
+            return null;
         }
     }
 
-    @Override
-    protected void apply(Map<ResourceLocation, JsonObject> missions, ResourceManager manager, ProfilerFiller profiler) {
-        MissionRegistry.clear();
-
-        for (Map.Entry<ResourceLocation, JsonObject> entry : missions.entrySet()) {
-            try {
-                JsonObject json = entry.getValue();
-
-                // 检查是否是包装的数组
-                if (json.has("missions") && json.get("missions").isJsonArray()) {
-                    JsonArray missionsArray = json.getAsJsonArray("missions");
-                    for (var element : missionsArray) {
-                        if (element.isJsonObject()) {
-                            registerMission(element.getAsJsonObject());
-                        }
+    // 按合并顺序哈希所有文件的路径和内容，作为编译缓存的键
+    private static long hashSources(List<SourceFile> files) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (SourceFile file : files) {
+            hasher.putString(file.file.toString(), StandardCharsets.UTF_8);
+            hasher.putBytes(file.hash.asBytes());
+        }
+        return hasher.hash().asLong();
+    }
+
+    // 支持三种格式：任务数组、{"missions": [...]} 包装对象、单个任务对象。
+    // 逐个读取数组元素，整个文件不会同时存在于内存中；单个元素出错时记录其JSON路径和行号并继续
+    private static List<ParsedMission> parseFile(SourceFile source) {
+        List<ParsedMission> missions = new ArrayList<>();
+        PositionReader position = null;
+        try (JsonReader reader = new JsonReader(position = new PositionReader(
+                new InputStreamReader(source.opener.get(), StandardCharsets.UTF_8)))) {
+            reader.setLenient(true);
+            JsonToken token = reader.peek();
+            if (token == JsonToken.BEGIN_ARRAY) {
+                readMissionArray(source, reader, position, missions);
+            } else if (token == JsonToken.BEGIN_OBJECT) {
+                // 包装对象中的 "missions" 数组流式读取，其余字段作为单个任务对象收集
+                JsonObject single = new JsonObject();
+                boolean wrapped = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("missions") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        readMissionArray(source, reader, position, missions);
+                        wrapped = true;
+                    } else {
+                        single.add(name, JsonParser.parseReader(reader));
                     }
                 }
-                // 处理单个任务对象
-                else if (json.has("id")) {
-                    registerMission(json);
+                reader.endObject();
+                if (!wrapped) {
+                    if (single.has("id")) {
+                        addMission(source, single, "$", missions);
+                    } else {
+                        LOGGER.error("Invalid mission format in {}", source.file);
+                    }
                 }
-            } catch (Exception e) {
-                LOGGER.error("Invalid mission format in {}", entry.getKey(), e);
+            } else {
+                LOGGER.error("Invalid mission format in {}", source.file);
+            }
+        } catch (Exception e) {
+            // JSON 语法错误无法继续读取，保留已读取的任务
+            LOGGER.error("解析任务文件失败: {}{}: {}", source.file,
+                    position != null ? " (" + position.describe() + ")" : "", e.getMessage());
+        }
+        return missions;
+    }
+
+    private static void readMissionArray(SourceFile source, JsonReader reader, PositionReader position,
+                                         List<ParsedMission> missions) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String location = location(reader, position);
+            JsonElement element = JsonParser.parseReader(reader);
+            if (element.isJsonObject()) {
+                addMission(source, element.getAsJsonObject(), location, missions);
+            } else {
+                LOGGER.error("{} {}: 任务必须是JSON对象", source.file, location);
             }
         }
-        LOGGER.info("Loaded {} missions", MissionRegistry.getMissionCount());
+        reader.endArray();
     }
 
-    private void registerMission(JsonObject json) {
+    // 元素的JSON路径和起始位置：hasNext 已读到元素的第一个字符
+    private static String location(JsonReader reader, PositionReader position) {
+        return reader.getPath() + " (" + position.describe() + ")";
+    }
+
+    private static void addMission(SourceFile source, JsonObject json, String location, List<ParsedMission> missions) {
+        if (!json.has("id") || !json.get("id").isJsonPrimitive()) {
+            LOGGER.error("{} {}: 任务缺少 id 字段", source.file, location);
+            return;
+        }
+        MissionDefinition definition = createDefinition(json.get("id").getAsString(), json, source.file, location);
+        if (definition != null) {
+            missions.add(new ParsedMission(definition, source.file));
+        }
+    }
+
+    private static MissionDefinition createDefinition(String id, JsonObject json, ResourceLocation file, String location) {
+        // 源 JSON 未变化时复用已有定义，不再重新配置触发器
+        long sourceHash = Hashing.sha256().hashString(json.toString(), StandardCharsets.UTF_8).asLong();
+        MissionDefinition existing = MissionRegistry.getMission(id);
+        if (existing != null && existing.getSourceHash() == sourceHash) {
+            return existing;
+        }
+
         try {
             boolean isShared = json.has("shared") && json.get("shared").getAsBoolean();
             MissionDefinition def = new MissionDefinition(
-                    json.get("id").getAsString(),
+                    id,
                     json.get("title").getAsString(),
                     json.get("target").getAsInt(),
                     json.get("trigger").getAsJsonObject(), // 确保有 trigger 字段
-                    isShared
+                    isShared,
+                    sourceHash
             );
 
-            MissionRegistry.registerMission(def);
-            LOGGER.info("注册任务: {}", def.getId());
-
             // 验证触发器配置
             if (def.getTrigger() == null) {
-                LOGGER.warn("任务 {} 的触发器配置无效或类型未知", def.getId());
-            } else {
-                LOGGER.info("任务 {} 触发器配置成功", def.getId());
+                LOGGER.warn("{} {}: 任务 {} 的触发器配置无效或类型未知", file, location, id);
             }
+            return def;
         } catch (Exception e) {
-            LOGGER.error("创建任务定义失败", e);
+            LOGGER.error("{} {}: 创建任务定义 {} 失败: {}", file, location, id, e.toString());
+            return null;
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    protected void apply(List<MissionDefinition> definitions, ResourceManager manager, ProfilerFiller profiler) {
+        // 与当前注册表比较得出差异，然后一次性发布
+        MissionRegistry.Builder builder = MissionRegistry.builder();
+        Set<String> seen = new HashSet<>();
+        int added = 0;
+        int changed = 0;
+        int unchanged = 0;
+        for (MissionDefinition def : definitions) {
+            MissionDefinition existing = MissionRegistry.getMission(def.getId());
+            if (existing == def) {
+                unchanged++;
+            } else if (existing != null) {
+                changed++;
+                LOGGER.debug("变更任务: {}", def.getId());
+            } else {
+                added++;
+                LOGGER.debug("新增任务: {}", def.getId());
+            }
+            seen.add(def.getId());
+            builder.add(def);
+        }
+
+        int removed = 0;
+        for (MissionDefinition def : MissionRegistry.getAllMissions()) {
+            if (!seen.contains(def.getId())) {
+                removed++;
+                LOGGER.debug("移除任务: {}", def.getId());
+            }
+        }
+
+        MissionRegistry.publish(builder);
+        LOGGER.info("Loaded {} missions (新增 {}, 变更 {}, 移除 {}, 未变 {})",
+                MissionRegistry.getMissionCount(), added, changed, removed, unchanged);
+
+        // 只重新索引定义发生变化的激活任务，未变的保留触发器状态
+        MissionTriggerIndex.refresh(ServerLifecycleHooks.getCurrentServer());
+
+        // 通知客户端定义可能已变化，客户端只下载哈希变化的定义
+        MissionDefinitionSync.broadcastDictionary(ServerLifecycleHooks.getCurrentServer());
+    }
+}
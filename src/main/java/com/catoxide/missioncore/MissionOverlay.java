@@ -1,5 +1,7 @@
 package com.catoxide.missioncore;
 
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiGraphics;
 import net.minecraft.network.chat.Component;
@@ -7,8 +9,6 @@ import net.minecraft.world.entity.player.Player;
 import net.minecraftforge.client.gui.overlay.ForgeGui;
 import net.minecraftforge.client.gui.overlay.IGuiOverlay;
 
-import java.util.Set;
-
 public class MissionOverlay implements IGuiOverlay {
     private boolean debugRendered = false;
     private long lastLogTime = 0;
@@ -47,7 +47,7 @@ public class MissionOverlay implements IGuiOverlay {
         int spacing = 12;
 
         // 获取玩家激活的任务实例 - 直接从客户端数据获取
-        Set<String> activatedMissionInstances = NetworkHandler.ClientMissionData.getActivatedMissions();
+        IntSet activatedMissionInstances = NetworkHandler.ClientMissionData.getActivatedMissions();
 
         // 添加调试信息 - 减少日志频率
         long currentTime = System.currentTimeMillis();
@@ -76,20 +76,18 @@ public class MissionOverlay implements IGuiOverlay {
             lastLogTime = currentTime;
         }
 
-        for (String instanceId : activatedMissionInstances) {
-            Mission mission = MissionInstanceManager.getMission(instanceId);
-            if (mission == null) continue;
-
-            MissionDefinition def = MissionRegistry.getMission(mission.getDefinitionId());
+        for (IntIterator it = activatedMissionInstances.iterator(); it.hasNext(); ) {
+            int instanceId = it.nextInt();
+            // 定义来自服务端同步的缓存，专用服务器上客户端没有任务注册表
+            MissionDefinitionSummary def = NetworkHandler.ClientMissionData.getDefinition(instanceId);
             if (def == null) continue;
 
             // 获取任务进度
             String progressText = "进度未知";
             int color = 0xFFFFFF; // 白色
 
-            if (mission.isShared()) {
+            if (NetworkHandler.ClientMissionData.isShared(instanceId)) {
                 // 对于共享任务，尝试获取进度
-                // 替换 MissionOverlay.java 中的进度显示部分
                 WorldSharedMissionData.SharedMission sharedMission = NetworkHandler.ClientMissionData.getMissionProgress(instanceId);
                 if (sharedMission != null) {
                     progressText = sharedMission.progress + "/" + sharedMission.target;
@@ -98,11 +96,7 @@ public class MissionOverlay implements IGuiOverlay {
                         color = 0x00FF00; // 绿色
                     }
                 } else {
-                    // 尝试从任务定义获取目标值（作为备选方案）
-                    MissionDefinition defg = MissionRegistry.getMission(mission.getDefinitionId());
-                    if (defg != null) {
-                        progressText = "0/" + def.getTarget(); // 默认进度为0
-                    }
+                    progressText = "0/" + def.getTarget(); // 默认进度为0
                 }
             }
 
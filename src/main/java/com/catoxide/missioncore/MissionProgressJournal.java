@@ -0,0 +1,229 @@
+package com.catoxide.missioncore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+// 共享任务进度的预写日志：每次进度变化、完成、激活和移除都追加一条定长记录到内存映射的日志段，
+// 进程崩溃后重放日志即可恢复上次保存之后的进度。写入分片后删除已合并的日志段
+public class MissionProgressJournal {
+    public static final byte PROGRESS = 1;
+    public static final byte ACTIVATE = 2;
+    public static final byte REMOVE = 3;
+
+    private static final int MAGIC = 0x4D434A4C; // "MCJL"
+    private static final int FORMAT = 1;
+    private static final int HEADER_BYTES = 16;         // magic, format, generation
+    private static final int RECORD_BYTES = 32;         // 定长记录，见 append
+    private static final int CHECKED_BYTES = 24;        // 参与校验的记录字节数
+    private static final int INITIAL_CAPACITY = 1 << 20; // 初始映射大小，写满后翻倍
+
+    // 所有打开的日志，服务器停止时关闭
+    private static final Set<MissionProgressJournal> openJournals = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    public interface Visitor {
+        void visit(byte type, int instanceId, int progress, int target, boolean completed, long version);
+    }
+
+    private final Path directory;
+    private long generation;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int records;
+
+    private MissionProgressJournal(Path directory) {
+        this.directory = directory;
+    }
+
+    // 按顺序重放目录中的所有日志段，然后在新的日志段上开始写入
+    public static MissionProgressJournal open(Path directory, Visitor replay) throws IOException {
+        Files.createDirectories(directory);
+        MissionProgressJournal journal = new MissionProgressJournal(directory);
+
+        long lastGeneration = 0;
+        int replayed = 0;
+        for (File segment : listSegments(directory)) {
+            lastGeneration = Math.max(lastGeneration, generationOf(segment));
+            replayed += replaySegment(segment, replay);
+        }
+        if (replayed > 0) {
+            MissionCore.LOGGER.info("重放任务进度日志: {} 条记录", replayed);
+        }
+
+        journal.openSegment(lastGeneration + 1);
+        openJournals.add(journal);
+        return journal;
+    }
+
+    public static void closeAll() {
+        for (MissionProgressJournal journal : openJournals) {
+            journal.close();
+        }
+        openJournals.clear();
+    }
+
+    public void appendProgress(int instanceId, int progress, int target, boolean completed, long version) {
+        append(PROGRESS, instanceId, progress, target, completed, version);
+    }
+
+    public void appendActivate(int instanceId, int target, long version) {
+        append(ACTIVATE, instanceId, 0, target, false, version);
+    }
+
+    public void appendRemove(int instanceId, long version) {
+        append(REMOVE, instanceId, 0, 0, false, version);
+    }
+
+    // 记录格式：type(1) completed(1) 保留(2) instance(4) progress(4) target(4) version(8) crc(4) 保留(4)
+    private void append(byte type, int instanceId, int progress, int target, boolean completed, long version) {
+        if (buffer == null) return;
+        int position = HEADER_BYTES + records * RECORD_BYTES;
+        try {
+            if (position + RECORD_BYTES > buffer.capacity()) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) buffer.capacity() * 2);
+            }
+        } catch (IOException e) {
+            MissionCore.LOGGER.error("扩展任务进度日志失败", e);
+            return;
+        }
+
+        buffer.put(position, type);
+        buffer.put(position + 1, (byte) (completed ? 1 : 0));
+        buffer.putShort(position + 2, (short) 0);
+        buffer.putInt(position + 4, instanceId);
+        buffer.putInt(position + 8, progress);
+        buffer.putInt(position + 12, target);
+        buffer.putLong(position + 16, version);
+        buffer.putInt(position + 24, checksum(buffer, position));
+        records++;
+    }
+
+    // 当前日志段中的记录数，用于决定何时合并
+    public int size() {
+        return records;
+    }
+
+    // 封存当前日志段并开始新的日志段，返回新日志段的代数；
+    // 此前的记录全部属于调用方即将写入的分片，写入成功后可用 deleteBefore 删除
+    public long rotate() {
+        closeSegment();
+        try {
+            openSegment(generation + 1);
+        } catch (IOException e) {
+            MissionCore.LOGGER.error("创建任务进度日志段失败", e);
+        }
+        return generation;
+    }
+
+    // 删除代数小于 generation 的日志段；删除失败的日志段在重放时由分片检查点过滤
+    public void deleteBefore(long generation) {
+        for (File segment : listSegments(directory)) {
+            if (generationOf(segment) >= generation) continue;
+            try {
+                Files.deleteIfExists(segment.toPath());
+            } catch (IOException e) {
+                // 仍被映射的日志段在部分系统上无法删除，下次合并时重试
+                MissionCore.LOGGER.debug("暂时无法删除任务进度日志段: {}", segment, e);
+            }
+        }
+    }
+
+    // 把已写入的记录刷到磁盘
+    public void force() {
+        if (buffer != null) buffer.force();
+    }
+
+    public void close() {
+        closeSegment();
+        openJournals.remove(this);
+    }
+
+    private void openSegment(long generation) throws IOException {
+        this.generation = generation;
+        this.records = 0;
+        channel = FileChannel.open(segmentPath(directory, generation),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_CAPACITY);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT);
+        buffer.putLong(8, generation);
+    }
+
+    private void closeSegment() {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                MissionCore.LOGGER.warn("关闭任务进度日志段失败", e);
+            }
+            channel = null;
+        }
+    }
+
+    // 读取日志段直到第一条空记录或校验失败的记录（崩溃时未写完的记录）
+    private static int replaySegment(File segment, Visitor replay) {
+        ByteBuffer data;
+        try {
+            data = ByteBuffer.wrap(Files.readAllBytes(segment.toPath()));
+        } catch (IOException e) {
+            MissionCore.LOGGER.error("读取任务进度日志段失败: {}", segment, e);
+            return 0;
+        }
+        if (data.capacity() < HEADER_BYTES || data.getInt(0) != MAGIC || data.getInt(4) != FORMAT) {
+            MissionCore.LOGGER.warn("忽略无效的任务进度日志段: {}", segment);
+            return 0;
+        }
+
+        int count = 0;
+        for (int position = HEADER_BYTES; position + RECORD_BYTES <= data.capacity(); position += RECORD_BYTES) {
+            byte type = data.get(position);
+            if (type == 0 || data.getInt(position + 24) != checksum(data, position)) break;
+            replay.visit(type, data.getInt(position + 4), data.getInt(position + 8), data.getInt(position + 12),
+                    data.get(position + 1) != 0, data.getLong(position + 16));
+            count++;
+        }
+        return count;
+    }
+
+    private static int checksum(ByteBuffer data, int position) {
+        CRC32 crc = new CRC32();
+        crc.update(data.slice(position, CHECKED_BYTES));
+        return (int) crc.getValue();
+    }
+
+    private static Path segmentPath(Path directory, long generation) {
+        return directory.resolve("journal_" + generation + ".bin");
+    }
+
+    private static long generationOf(File segment) {
+        String name = segment.getName();
+        try {
+            return Long.parseLong(name.substring("journal_".length(), name.length() - ".bin".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static File[] listSegments(Path directory) {
+        File[] segments = directory.toFile().listFiles((dir, name) -> name.startsWith("journal_") && name.endsWith(".bin"));
+        if (segments == null) return new File[0];
+        Arrays.sort(segments, Comparator.comparingLong(MissionProgressJournal::generationOf));
+        return segments;
+    }
+}
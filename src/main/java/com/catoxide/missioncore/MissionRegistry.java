@@ -5,17 +5,80 @@ import com.catoxide.missioncore.trigger.BlockStateChangeTrigger;
 import com.catoxide.missioncore.trigger.EntityKillTrigger;
 import com.catoxide.missioncore.trigger.PlayerInteractTrigger;
 import com.catoxide.missioncore.trigger.MissionTrigger;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.block.Block;
+import net.minecraftforge.event.level.BlockEvent;
+import net.minecraftforge.eventbus.api.Event;
 import net.minecraftforge.registries.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MissionRegistry {
-    private static final Map<String, MissionDefinition> missions = new HashMap<>();
-    private static final Map<String, MissionTrigger> triggerPrototypes = new HashMap<>();
+    // 无效的定义索引
+    public static final int NO_DEFINITION = -1;
+
+    // 不可变的注册表快照，发布后不再修改，读取无需加锁
+    private static final class Snapshot {
+        // 定义ID -> 稠密索引。索引只追加不回收，重载后同一ID的索引不变，任务实例可以长期持有
+        final Object2IntOpenHashMap<String> indexById;
+        final String[] ids;
+        final MissionDefinition[] missions; // 按索引存放，未加载的定义为 null
+        final List<MissionDefinition> loaded;
+        // 所有已加载的 block_state_change 任务关注的方块，用于在方块更新事件入口快速过滤
+        final ReferenceOpenHashSet<Block> watchedStateBlocks;
+        // 存在无法按方块过滤的方块更新触发器时，关闭过滤
+        final boolean watchAllStateBlocks;
+
+        Snapshot(Object2IntOpenHashMap<String> indexById, String[] ids, MissionDefinition[] missions) {
+            this.indexById = indexById;
+            this.ids = ids;
+            this.missions = missions;
+
+            List<MissionDefinition> loaded = new ArrayList<>();
+            ReferenceOpenHashSet<Block> watchedStateBlocks = new ReferenceOpenHashSet<>();
+            boolean watchAllStateBlocks = false;
+            for (MissionDefinition definition : missions) {
+                if (definition == null) continue;
+                loaded.add(definition);
+                watchAllStateBlocks |= watchStateBlocks(definition.getTrigger(), watchedStateBlocks);
+            }
+            this.loaded = Collections.unmodifiableList(loaded);
+            this.watchedStateBlocks = watchedStateBlocks;
+            this.watchAllStateBlocks = watchAllStateBlocks;
+        }
+
+        int indexOf(String id) {
+            return indexById.getInt(id);
+        }
+    }
+
+    // 重载时收集新的定义，publish 时一次性替换
+    public static final class Builder {
+        private final List<MissionDefinition> definitions = new ArrayList<>();
+
+        private Builder() {}
+
+        public Builder add(MissionDefinition definition) {
+            definitions.add(definition);
+            return this;
+        }
+    }
+
+    private static volatile Snapshot current = new Snapshot(createIndexMap(), new String[0], new MissionDefinition[0]);
+    // 写入方（发布、分配索引）互斥，读取方只读 current
+    private static final Object WRITE_LOCK = new Object();
+
+    private static final Map<String, MissionTrigger> triggerPrototypes = new ConcurrentHashMap<>();
 
     // 静态初始化块注册内置触发器原型
     static {
@@ -37,26 +100,146 @@ public class MissionRegistry {
         return triggerPrototypes.get(type);
     }
 
-    // 注册任务定义
+    public static Set<String> getTriggerPrototypeNames() {
+        return Collections.unmodifiableSet(triggerPrototypes.keySet());
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // 用构建好的定义替换整个注册表，读取方要么看到旧快照，要么看到新快照
+    public static void publish(Builder builder) {
+        synchronized (WRITE_LOCK) {
+            Snapshot base = current;
+            Object2IntOpenHashMap<String> indexById = copyIndexMap(base.indexById);
+            List<String> ids = new ArrayList<>(Arrays.asList(base.ids));
+            for (MissionDefinition definition : builder.definitions) {
+                intern(indexById, ids, definition.getId());
+            }
+
+            MissionDefinition[] missions = new MissionDefinition[ids.size()];
+            for (MissionDefinition definition : builder.definitions) {
+                int index = indexById.getInt(definition.getId());
+                definition.setIndex(index);
+                missions[index] = definition;
+            }
+            current = new Snapshot(indexById, ids.toArray(new String[0]), missions);
+        }
+    }
+
+    // 注册单个任务定义（API 调用），保留其余已加载的定义。每次调用都会重建快照，只适合偶尔使用，
+    // 批量注册请使用 registerMissions
     public static void registerMission(MissionDefinition definition) {
-        missions.put(definition.getId(), definition);
-        MissionCore.LOGGER.info("注册任务: {}", definition.getId());
+        registerMissions(List.of(definition));
     }
 
-    public static int getMissionCount() {
-        return missions.size();
+    // 批量注册任务定义，只重建一次快照；同ID的已加载定义被替换
+    public static void registerMissions(Collection<MissionDefinition> definitions) {
+        if (definitions.isEmpty()) return;
+        Set<String> replaced = new HashSet<>();
+        for (MissionDefinition definition : definitions) {
+            replaced.add(definition.getId());
+        }
+
+        synchronized (WRITE_LOCK) {
+            Snapshot base = current;
+            Builder builder = builder();
+            for (MissionDefinition loaded : base.loaded) {
+                if (!replaced.contains(loaded.getId())) builder.add(loaded);
+            }
+            definitions.forEach(builder::add);
+            publish(builder);
+        }
+        MissionCore.LOGGER.info("注册 {} 个任务", definitions.size());
     }
 
-    public static void clear() {
-        missions.clear();
-        MissionCore.LOGGER.info("清空任务注册表");
+    // 为定义ID分配稠密索引，已分配的直接返回
+    public static int intern(String id) {
+        int index = current.indexOf(id);
+        if (index != NO_DEFINITION) return index;
+
+        synchronized (WRITE_LOCK) {
+            Snapshot base = current;
+            index = base.indexOf(id);
+            if (index != NO_DEFINITION) return index;
+
+            Object2IntOpenHashMap<String> indexById = copyIndexMap(base.indexById);
+            List<String> ids = new ArrayList<>(Arrays.asList(base.ids));
+            index = intern(indexById, ids, id);
+            current = new Snapshot(indexById, ids.toArray(new String[0]), Arrays.copyOf(base.missions, ids.size()));
+            return index;
+        }
+    }
+
+    private static int intern(Object2IntOpenHashMap<String> indexById, List<String> ids, String id) {
+        int index = indexById.getInt(id);
+        if (index == NO_DEFINITION) {
+            index = ids.size();
+            ids.add(id);
+            indexById.put(id, index);
+        }
+        return index;
+    }
+
+    private static Object2IntOpenHashMap<String> createIndexMap() {
+        Object2IntOpenHashMap<String> indexById = new Object2IntOpenHashMap<>();
+        indexById.defaultReturnValue(NO_DEFINITION);
+        return indexById;
+    }
+
+    // 复制构造不会保留默认返回值，需要重新设置
+    private static Object2IntOpenHashMap<String> copyIndexMap(Object2IntOpenHashMap<String> source) {
+        Object2IntOpenHashMap<String> indexById = new Object2IntOpenHashMap<>(source);
+        indexById.defaultReturnValue(NO_DEFINITION);
+        return indexById;
+    }
+
+    // 收集触发器关注的方块，返回是否需要关闭过滤
+    private static boolean watchStateBlocks(MissionTrigger trigger, ReferenceOpenHashSet<Block> watchedStateBlocks) {
+        if (trigger == null) return false;
+        if (trigger instanceof BlockStateChangeTrigger stateTrigger) {
+            if (stateTrigger.getRequiredBlock() != null) {
+                watchedStateBlocks.add(stateTrigger.getRequiredBlock());
+            }
+            return false;
+        }
+        return trigger.getEventType() == BlockEvent.NeighborNotifyEvent.class || trigger.getEventType() == Event.class;
+    }
+
+    // 该方块的状态变化是否可能被任何已加载的任务关注
+    public static boolean isWatchedStateBlock(Block block) {
+        Snapshot snapshot = current;
+        return snapshot.watchAllStateBlocks || snapshot.watchedStateBlocks.contains(block);
+    }
+
+    public static int getMissionCount() {
+        return current.loaded.size();
     }
 
     public static Collection<MissionDefinition> getAllMissions() {
-        return Collections.unmodifiableCollection(missions.values());
+        return current.loaded;
     }
 
     public static MissionDefinition getMission(String id) {
-        return missions.get(id);
+        Snapshot snapshot = current;
+        int index = snapshot.indexOf(id);
+        return index != NO_DEFINITION ? snapshot.missions[index] : null;
+    }
+
+    // 按索引获取定义，热路径上只需一次数组访问
+    public static MissionDefinition getMission(int index) {
+        MissionDefinition[] missions = current.missions;
+        return index >= 0 && index < missions.length ? missions[index] : null;
+    }
+
+    // 定义ID对应的索引，未分配时返回 NO_DEFINITION
+    public static int getMissionIndex(String id) {
+        return current.indexOf(id);
+    }
+
+    public static String getMissionId(int index) {
+        String[] ids = current.ids;
+        return index >= 0 && index < ids.length ? ids[index] : null;
     }
-}
\ No newline at end of file
+}
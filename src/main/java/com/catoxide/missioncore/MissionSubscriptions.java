@@ -0,0 +1,77 @@
+package com.catoxide.missioncore;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntSets;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+// 服务端订阅索引：任务实例 -> 激活了该实例的在线玩家，用于只向相关玩家同步任务数据
+public class MissionSubscriptions {
+    private static final Int2ObjectOpenHashMap<Set<UUID>> subscribers = new Int2ObjectOpenHashMap<>();
+    private static final Map<UUID, IntOpenHashSet> subscriptions = new HashMap<>();
+
+    public static void subscribe(UUID playerId, int instanceId) {
+        subscribers.computeIfAbsent(instanceId, id -> new HashSet<>()).add(playerId);
+        subscriptions.computeIfAbsent(playerId, id -> new IntOpenHashSet()).add(instanceId);
+    }
+
+    public static void unsubscribe(UUID playerId, int instanceId) {
+        removeSubscriber(instanceId, playerId);
+        removeSubscription(playerId, instanceId);
+    }
+
+    // 玩家下线时移除其所有订阅
+    public static void unsubscribeAll(UUID playerId) {
+        IntOpenHashSet instanceIds = subscriptions.remove(playerId);
+        if (instanceIds == null) return;
+        for (IntIterator it = instanceIds.iterator(); it.hasNext(); ) {
+            removeSubscriber(it.nextInt(), playerId);
+        }
+    }
+
+    // 任务实例被删除时移除所有订阅
+    public static void removeInstance(int instanceId) {
+        Set<UUID> playerIds = subscribers.remove(instanceId);
+        if (playerIds == null) return;
+        for (UUID playerId : playerIds) {
+            removeSubscription(playerId, instanceId);
+        }
+    }
+
+    public static Set<UUID> getSubscribers(int instanceId) {
+        Set<UUID> playerIds = subscribers.get(instanceId);
+        return playerIds != null ? Collections.unmodifiableSet(playerIds) : Collections.emptySet();
+    }
+
+    public static IntSet getSubscriptions(UUID playerId) {
+        IntOpenHashSet instanceIds = subscriptions.get(playerId);
+        return instanceIds != null ? IntSets.unmodifiable(instanceIds) : IntSets.EMPTY_SET;
+    }
+
+    public static void clear() {
+        subscribers.clear();
+        subscriptions.clear();
+    }
+
+    private static void removeSubscriber(int instanceId, UUID playerId) {
+        Set<UUID> playerIds = subscribers.get(instanceId);
+        if (playerIds == null) return;
+        playerIds.remove(playerId);
+        if (playerIds.isEmpty()) subscribers.remove(instanceId);
+    }
+
+    private static void removeSubscription(UUID playerId, int instanceId) {
+        IntOpenHashSet instanceIds = subscriptions.get(playerId);
+        if (instanceIds == null) return;
+        instanceIds.remove(instanceId);
+        if (instanceIds.isEmpty()) subscriptions.remove(playerId);
+    }
+}
@@ -0,0 +1,376 @@
+package com.catoxide.missioncore;
+
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.network.PacketDistributor;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+// 服务端任务同步协议 v2：为每个连接维护已绑定的实例、客户端已知的进度和包序号，
+// 只发送实例绑定、进度增量和激活集合的增删操作。每个数据包附带全局版本号和激活集合版本，
+// 客户端重连时据此只接收离线期间的变化。全量快照和续传按字节数切块，分摊到多个tick发送
+public class MissionSync {
+    // 操作码
+    public static final int OP_BIND = 0;       // 实例, 定义ID, 是否共享
+    public static final int OP_STATE = 1;      // 实例, 目标, 进度, 是否完成
+    public static final int OP_PROGRESS = 2;   // 实例, 进度增量, 是否完成
+    public static final int OP_ACTIVATE = 3;   // 实例
+    public static final int OP_DEACTIVATE = 4; // 实例
+    public static final int OP_REMOVE = 5;     // 实例，实例已被删除，客户端丢弃其全部数据
+
+    // 数据包模式
+    public static final int MODE_DELTA = 0;    // 增量，沿用当前会话的实例绑定
+    public static final int MODE_SNAPSHOT = 1; // 全量快照，客户端清空本地数据
+    public static final int MODE_RESUME = 2;   // 断线重连续传，客户端保留已有数据，实例重新绑定
+
+    // 数据包标志
+    public static final int FLAG_COMPRESSED = 1; // 操作数据经过 Deflate 压缩，前缀为原始长度
+    public static final int FLAG_STREAMING = 2;  // 快照尚未发送完毕，客户端数据还不完整
+
+    public static final int MAX_CHUNK_BYTES = 1 << 20; // 客户端接受的单块最大解压长度
+
+    private static final int CHUNK_BYTES = 8192;          // 快照每块的目标大小（压缩前）
+    private static final int CHUNKS_PER_TICK = 2;         // 每个玩家每tick最多发送的快照块数
+    private static final int COMPRESSION_THRESHOLD = 256; // 小于此大小的块不压缩
+    private static final int REQUEST_INTERVAL_TICKS = 20; // 同一玩家两次全量同步请求之间的最小间隔
+
+    // 是否压缩快照块
+    public static boolean compressSnapshots = true;
+
+    // 单个连接的同步状态
+    private static class Connection {
+        final IntOpenHashSet bound = new IntOpenHashSet();                  // 已向客户端绑定定义的实例
+        final Int2IntOpenHashMap sentProgress = new Int2IntOpenHashMap();    // 实例 -> 客户端已知的进度
+        final IntArrayFIFOQueue pendingSnapshot = new IntArrayFIFOQueue();   // 尚未发送的快照任务
+        int sequence = 0;
+
+        Connection() {
+            sentProgress.defaultReturnValue(-1);
+        }
+    }
+
+    private static final Map<UUID, Connection> connections = new HashMap<>();
+    private static final Set<UUID> streaming = new LinkedHashSet<>(); // 有未发送完快照的玩家
+    private static final Map<UUID, Long> lastRequestTick = new HashMap<>(); // 玩家上一次被接受的同步请求
+    private static final Set<UUID> deferredResync = new LinkedHashSet<>(); // 被推迟的同步请求，多次请求合并为一次
+
+    // 针对单个玩家收集一批操作，最后作为一个数据包发送
+    public static class Batch {
+        private final ServerPlayer player;
+        private final Connection connection;
+        private final int mode;
+        private final FriendlyByteBuf ops = new FriendlyByteBuf(Unpooled.buffer());
+        private int opCount = 0;
+        private boolean snapshotChunk = false; // 快照块：即使为空也要发送，以便客户端得知快照结束
+        private boolean detached = false;      // 尚未建立会话，不发送
+
+        private Batch(ServerPlayer player, Connection connection, int mode) {
+            this.player = player;
+            this.connection = connection;
+            this.mode = mode;
+        }
+
+        public int size() {
+            return opCount;
+        }
+
+        // 发送任务的进度：客户端已有该任务时只发送增量
+        public Batch progress(WorldSharedMissionData.SharedMission mission) {
+            int instanceId = bind(mission.instanceId);
+            int known = connection.sentProgress.get(instanceId);
+            if (known < 0) {
+                ops.writeVarInt(OP_STATE);
+                ops.writeVarInt(instanceId);
+                ops.writeVarInt(mission.target);
+                ops.writeVarInt(mission.progress);
+                ops.writeBoolean(mission.completed);
+            } else {
+                ops.writeVarInt(OP_PROGRESS);
+                ops.writeVarInt(instanceId);
+                ops.writeVarInt(mission.progress - known);
+                ops.writeBoolean(mission.completed);
+            }
+            connection.sentProgress.put(instanceId, mission.progress);
+            opCount++;
+            return this;
+        }
+
+        public Batch activate(int instanceId) {
+            bind(instanceId);
+            ops.writeVarInt(OP_ACTIVATE);
+            ops.writeVarInt(instanceId);
+            opCount++;
+            return this;
+        }
+
+        public Batch deactivate(int instanceId) {
+            bind(instanceId);
+            ops.writeVarInt(OP_DEACTIVATE);
+            ops.writeVarInt(instanceId);
+            opCount++;
+            return this;
+        }
+
+        // 实例已删除：不需要绑定，之后同一句柄不会再出现
+        public Batch remove(int instanceId) {
+            ops.writeVarInt(OP_REMOVE);
+            ops.writeVarInt(instanceId);
+            connection.bound.remove(instanceId);
+            connection.sentProgress.remove(instanceId);
+            opCount++;
+            return this;
+        }
+
+        // 本会话中首次出现的实例先发送其定义ID
+        private int bind(int instanceId) {
+            if (connection.bound.add(instanceId)) {
+                ops.writeVarInt(OP_BIND);
+                ops.writeVarInt(instanceId);
+                Mission mission = MissionInstanceManager.getMission(instanceId);
+                ops.writeUtf(mission != null ? mission.getDefinitionId() : "");
+                ops.writeBoolean(mission != null && mission.isShared());
+                opCount++;
+            }
+            return instanceId;
+        }
+
+        public void send() {
+            if (detached) return;
+            if (opCount == 0 && mode == MODE_DELTA && !snapshotChunk) return;
+
+            byte[] payload = new byte[ops.readableBytes()];
+            ops.readBytes(payload);
+
+            int flags = 0;
+            if (!connection.pendingSnapshot.isEmpty()) {
+                flags |= FLAG_STREAMING;
+            }
+            if (snapshotChunk && compressSnapshots && payload.length >= COMPRESSION_THRESHOLD) {
+                payload = compress(payload);
+                flags |= FLAG_COMPRESSED;
+            }
+
+            MinecraftServer server = player.getServer();
+            long epoch = mode != MODE_DELTA ? WorldSharedMissionData.epoch(server) : 0;
+            NetworkHandler.INSTANCE.send(
+                    PacketDistributor.PLAYER.with(() -> player),
+                    new NetworkHandler.MissionDeltaPacket(connection.sequence++, mode, flags, epoch,
+                            WorldSharedMissionData.currentVersion(server), activationVersion(player), opCount, payload)
+            );
+        }
+    }
+
+    // 开始一批增量操作
+    public static Batch begin(ServerPlayer player) {
+        Connection connection = connections.get(player.getUUID());
+        if (connection == null) {
+            // 会话只由客户端的续传请求或全量快照建立；在此之前的变化由随后的续传或快照覆盖，这批操作直接丢弃
+            Batch batch = new Batch(player, new Connection(), MODE_DELTA);
+            batch.detached = true;
+            return batch;
+        }
+        return new Batch(player, connection, MODE_DELTA);
+    }
+
+    // 开始一个全量快照：重置连接状态，客户端收到后清空本地数据
+    public static Batch beginSnapshot(ServerPlayer player) {
+        return beginSession(player, MODE_SNAPSHOT);
+    }
+
+    private static Batch beginSession(ServerPlayer player, int mode) {
+        Connection connection = new Connection();
+        connections.put(player.getUUID(), connection);
+        streaming.remove(player.getUUID());
+        return new Batch(player, connection, mode);
+    }
+
+    // 发送玩家订阅的共享任务和激活集合的全量快照：激活集合随第一块发送，任务按块在之后的tick中流式发送
+    public static void sendSnapshot(ServerPlayer player, Collection<WorldSharedMissionData.SharedMission> missions,
+                                    IntCollection activatedInstances) {
+        Batch batch = beginSnapshot(player);
+        for (IntIterator it = activatedInstances.iterator(); it.hasNext(); ) {
+            batch.activate(it.nextInt());
+        }
+        IntArrayList instanceIds = new IntArrayList(missions.size());
+        missions.forEach(mission -> instanceIds.add(mission.instanceId));
+        startStream(batch, instanceIds);
+    }
+
+    // 客户端请求续传或全量同步时调用：上一次的快照仍在发送或距上次请求过近时推迟到之后的tick，
+    // 推迟的请求合并为一次全量快照。返回 false 时调用方不应处理该请求
+    public static boolean acceptRequest(ServerPlayer player) {
+        UUID playerId = player.getUUID();
+        long now = player.getServer().getTickCount();
+        Long last = lastRequestTick.get(playerId);
+        if (streaming.contains(playerId) || (last != null && now - last < REQUEST_INTERVAL_TICKS)) {
+            deferredResync.add(playerId);
+            return false;
+        }
+        lastRequestTick.put(playerId, now);
+        return true;
+    }
+
+    // 客户端重连时报告其最后看到的版本：纪元和激活集合版本一致、且之后没有移除任务时只发送之后变化的任务，
+    // 否则发送全量快照
+    public static void resume(ServerPlayer player, boolean hasState, long epoch, long version, long activationVersion) {
+        WorldSharedMissionData sharedData = WorldSharedMissionData.get(player.serverLevel());
+        MinecraftServer server = player.getServer();
+        if (!hasState
+                || epoch != WorldSharedMissionData.epoch(server)
+                || version > WorldSharedMissionData.currentVersion(server)
+                || activationVersion != activationVersion(player)
+                || WorldSharedMissionData.removalVersion(server) > version) {
+            sharedData.syncSubscribedTo(player);
+            return;
+        }
+
+        IntArrayList changed = new IntArrayList();
+        for (IntIterator it = MissionSubscriptions.getSubscriptions(player.getUUID()).iterator(); it.hasNext(); ) {
+            WorldSharedMissionData.SharedMission mission = sharedData.getSharedMission(it.nextInt());
+            if (mission != null && mission.version > version) {
+                changed.add(mission.instanceId);
+            }
+        }
+        MissionCore.LOGGER.debug("玩家 {} 重连续传 {} 个任务变化", player.getName().getString(), changed.size());
+        startStream(beginSession(player, MODE_RESUME), changed);
+    }
+
+    private static void startStream(Batch first, IntCollection instanceIds) {
+        for (IntIterator it = instanceIds.iterator(); it.hasNext(); ) {
+            first.connection.pendingSnapshot.enqueue(it.nextInt());
+        }
+        fillChunk(first);
+        first.send();
+        if (!first.connection.pendingSnapshot.isEmpty()) {
+            streaming.add(first.player.getUUID());
+        }
+    }
+
+    // 在服务器tick结束时处理推迟的同步请求，并为每个玩家发送有限数量的快照块
+    public static void tick(MinecraftServer server) {
+        if (!deferredResync.isEmpty()) {
+            runDeferredRequests(server);
+        }
+        if (streaming.isEmpty()) return;
+
+        Iterator<UUID> iterator = streaming.iterator();
+        while (iterator.hasNext()) {
+            UUID playerId = iterator.next();
+            Connection connection = connections.get(playerId);
+            ServerPlayer player = server.getPlayerList().getPlayer(playerId);
+            if (connection == null || player == null) {
+                iterator.remove();
+                continue;
+            }
+
+            for (int i = 0; i < CHUNKS_PER_TICK && !connection.pendingSnapshot.isEmpty(); i++) {
+                Batch batch = new Batch(player, connection, MODE_DELTA);
+                fillChunk(batch);
+                batch.send();
+            }
+            if (connection.pendingSnapshot.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static void runDeferredRequests(MinecraftServer server) {
+        Iterator<UUID> iterator = deferredResync.iterator();
+        while (iterator.hasNext()) {
+            UUID playerId = iterator.next();
+            ServerPlayer player = server.getPlayerList().getPlayer(playerId);
+            if (player == null) {
+                iterator.remove();
+                continue;
+            }
+            Long last = lastRequestTick.get(playerId);
+            if (streaming.contains(playerId) || (last != null && server.getTickCount() - last < REQUEST_INTERVAL_TICKS)) {
+                continue;
+            }
+            iterator.remove();
+            lastRequestTick.put(playerId, (long) server.getTickCount());
+            WorldSharedMissionData.get(player.serverLevel()).syncSubscribedTo(player);
+        }
+    }
+
+    // 从待发送队列取任务填充一块，直到达到目标大小；已通过增量发送过完整状态的任务跳过
+    private static void fillChunk(Batch batch) {
+        batch.snapshotChunk = true;
+        Connection connection = batch.connection;
+        WorldSharedMissionData sharedData = WorldSharedMissionData.get(batch.player.serverLevel());
+        while (!connection.pendingSnapshot.isEmpty() && batch.ops.readableBytes() < CHUNK_BYTES) {
+            int instanceId = connection.pendingSnapshot.dequeueInt();
+            if (connection.sentProgress.containsKey(instanceId)) continue;
+
+            WorldSharedMissionData.SharedMission mission = sharedData.getSharedMission(instanceId);
+            if (mission != null) {
+                batch.progress(mission);
+            }
+        }
+    }
+
+    // 压缩后的格式：原始长度 (VarInt) + Deflate 数据
+    private static byte[] compress(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+
+            FriendlyByteBuf out = new FriendlyByteBuf(Unpooled.buffer(raw.length / 2 + 16));
+            out.writeVarInt(raw.length);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.writeBytes(buffer, 0, length);
+            }
+
+            byte[] payload = new byte[out.readableBytes()];
+            out.readBytes(payload);
+            return payload;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static long activationVersion(ServerPlayer player) {
+        return player.getCapability(ModCapabilities.PLAYER_MISSIONS)
+                .map(PlayerMissionData::getActivationVersion)
+                .orElse(0L);
+    }
+
+    // 客户端检测到序号缺口时请求重新同步
+    public static void resync(ServerPlayer player) {
+        if (!acceptRequest(player)) return;
+        MissionCore.LOGGER.info("玩家 {} 请求重新同步任务数据", player.getName().getString());
+        WorldSharedMissionData.get(player.serverLevel()).syncSubscribedTo(player);
+    }
+
+    public static void disconnect(UUID playerId) {
+        connections.remove(playerId);
+        streaming.remove(playerId);
+        lastRequestTick.remove(playerId);
+        deferredResync.remove(playerId);
+    }
+
+    public static void clear() {
+        connections.clear();
+        streaming.clear();
+        lastRequestTick.clear();
+        deferredResync.clear();
+    }
+}
@@ -0,0 +1,234 @@
+package com.catoxide.missioncore;
+
+import com.catoxide.missioncore.trigger.BlockBreakTrigger;
+import com.catoxide.missioncore.trigger.EntityKillTrigger;
+import com.catoxide.missioncore.trigger.MissionTrigger;
+import com.catoxide.missioncore.trigger.TriggerState;
+import com.catoxide.missioncore.trigger.TriggerStateArena;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntSets;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.EntityType;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.block.Block;
+import net.minecraftforge.eventbus.api.Event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// 服务端触发器分发索引：按玩家和事件类型对激活的任务实例分组
+public class MissionTriggerIndex {
+    // 激活时一次性解析好的任务实例，事件处理时无需再查表
+    public static class ActiveMission {
+        public final UUID playerId;
+        public final int instanceId;
+        public final Mission mission;
+        public final MissionDefinition definition;
+        public final MissionTrigger trigger;
+        public final TriggerState state; // 该 (玩家, 任务实例) 的触发器状态槽位
+
+        ActiveMission(UUID playerId, int instanceId, Mission mission, MissionDefinition definition,
+                      MissionTrigger trigger, TriggerState state) {
+            this.playerId = playerId;
+            this.instanceId = instanceId;
+            this.mission = mission;
+            this.definition = definition;
+            this.trigger = trigger;
+            this.state = state;
+        }
+    }
+
+    // 所有激活任务实例的触发器状态
+    private static final TriggerStateArena stateArena = new TriggerStateArena();
+
+    // 玩家UUID -> 该玩家所有激活的任务实例，用于增删时定位
+    private static final Map<UUID, List<ActiveMission>> byPlayer = new HashMap<>();
+
+    // 玩家UUID -> 事件类型 -> 未进入倒排索引的激活任务实例
+    private static final Map<UUID, Map<Class<? extends Event>, List<ActiveMission>>> byPlayerAndType = new HashMap<>();
+
+    // 倒排索引：玩家UUID -> 方块 -> 该玩家关注该方块破坏的激活任务
+    private static final Map<UUID, Reference2ObjectOpenHashMap<Block, List<ActiveMission>>> byBlock = new HashMap<>();
+
+    // 倒排索引：玩家UUID -> 实体类型 -> 该玩家关注该实体击杀的激活任务
+    private static final Map<UUID, Reference2ObjectOpenHashMap<EntityType<?>, List<ActiveMission>>> byEntityType = new HashMap<>();
+
+    // 获取玩家在指定事件类型下激活的任务实例
+    public static List<ActiveMission> getActiveMissions(Player player, Class<? extends Event> eventType) {
+        Map<Class<? extends Event>, List<ActiveMission>> byType = byPlayerAndType.get(player.getUUID());
+        if (byType == null) return Collections.emptyList();
+        List<ActiveMission> missions = byType.get(eventType);
+        return missions != null ? missions : Collections.emptyList();
+    }
+
+    // 获取该玩家关注该方块破坏的激活任务，事件只涉及执行者自己的任务
+    public static List<ActiveMission> getBlockBreakWatchers(UUID playerId, Block block) {
+        return lookup(byBlock, playerId, block);
+    }
+
+    // 获取该玩家关注该实体类型击杀的激活任务
+    public static List<ActiveMission> getKillWatchers(UUID playerId, EntityType<?> type) {
+        return lookup(byEntityType, playerId, type);
+    }
+
+    private static <K> List<ActiveMission> lookup(Map<UUID, Reference2ObjectOpenHashMap<K, List<ActiveMission>>> index,
+                                                  UUID playerId, K key) {
+        Reference2ObjectOpenHashMap<K, List<ActiveMission>> byKey = index.get(playerId);
+        if (byKey == null) return Collections.emptyList();
+        List<ActiveMission> missions = byKey.get(key);
+        return missions != null ? missions : Collections.emptyList();
+    }
+
+    // 根据玩家能力数据重建该玩家的索引
+    public static void indexPlayer(ServerPlayer player) {
+        removePlayer(player.getUUID());
+        player.getCapability(ModCapabilities.PLAYER_MISSIONS).ifPresent(data -> {
+            for (IntIterator it = data.getActivatedMissionInstances().iterator(); it.hasNext(); ) {
+                add(player, it.nextInt());
+            }
+        });
+    }
+
+    // 玩家激活任务实例时加入索引
+    public static void add(Player player, int instanceId) {
+        Mission mission = MissionInstanceManager.getMission(instanceId);
+        if (mission == null) return;
+
+        MissionDefinition def = mission.getDefinition();
+        if (def == null) return;
+
+        MissionTrigger trigger = def.getTrigger();
+        if (trigger == null) return;
+
+        UUID playerId = player.getUUID();
+        remove(playerId, instanceId);
+        ActiveMission active = new ActiveMission(playerId, instanceId, mission, def, trigger,
+                stateArena.allocate(trigger.getStateSlots()));
+        byPlayer.computeIfAbsent(playerId, id -> new ArrayList<>()).add(active);
+        link(active);
+    }
+
+    // 加入倒排索引；无法按触发条件建立倒排索引的按事件类型归入玩家索引
+    private static void link(ActiveMission active) {
+        if (active.trigger instanceof BlockBreakTrigger blockTrigger && blockTrigger.getRequiredBlock() != null) {
+            byBlock.computeIfAbsent(active.playerId, id -> new Reference2ObjectOpenHashMap<>())
+                    .computeIfAbsent(blockTrigger.getRequiredBlock(), block -> new ArrayList<>())
+                    .add(active);
+        } else if (active.trigger instanceof EntityKillTrigger killTrigger && killTrigger.getRequiredEntity() != null) {
+            byEntityType.computeIfAbsent(active.playerId, id -> new Reference2ObjectOpenHashMap<>())
+                    .computeIfAbsent(killTrigger.getRequiredEntity(), type -> new ArrayList<>())
+                    .add(active);
+        } else {
+            byPlayerAndType.computeIfAbsent(active.playerId, id -> new HashMap<>())
+                    .computeIfAbsent(active.trigger.getEventType(), type -> new ArrayList<>())
+                    .add(active);
+        }
+    }
+
+    // 从 link 加入的索引中移除
+    private static void unlink(ActiveMission active) {
+        if (active.trigger instanceof BlockBreakTrigger blockTrigger && blockTrigger.getRequiredBlock() != null) {
+            unlinkForPlayer(byBlock, blockTrigger.getRequiredBlock(), active);
+        } else if (active.trigger instanceof EntityKillTrigger killTrigger && killTrigger.getRequiredEntity() != null) {
+            unlinkForPlayer(byEntityType, killTrigger.getRequiredEntity(), active);
+        } else {
+            unlinkForPlayer(byPlayerAndType, active.trigger.getEventType(), active);
+        }
+    }
+
+    private static <K, M extends Map<K, List<ActiveMission>>> void unlinkForPlayer(Map<UUID, M> index, K key, ActiveMission active) {
+        M byKey = index.get(active.playerId);
+        if (byKey == null) return;
+        unlink(byKey, key, active);
+        if (byKey.isEmpty()) index.remove(active.playerId);
+    }
+
+    private static <K> void unlink(Map<K, List<ActiveMission>> index, K key, ActiveMission active) {
+        List<ActiveMission> watchers = index.get(key);
+        if (watchers != null) {
+            watchers.remove(active);
+            if (watchers.isEmpty()) index.remove(key);
+        }
+    }
+
+    // 玩家取消激活任务实例时移出索引
+    public static void remove(UUID playerId, int instanceId) {
+        List<ActiveMission> missions = byPlayer.get(playerId);
+        if (missions == null) return;
+
+        missions.removeIf(active -> {
+            if (active.instanceId != instanceId) return false;
+            unlink(active);
+            stateArena.release(active.state);
+            return true;
+        });
+        if (missions.isEmpty()) byPlayer.remove(playerId);
+    }
+
+    // 任务实例被删除时从所有玩家的索引中移除
+    public static void removeInstance(int instanceId) {
+        for (UUID playerId : new ArrayList<>(byPlayer.keySet())) {
+            remove(playerId, instanceId);
+        }
+    }
+
+    // 玩家下线时清除索引
+    public static void removePlayer(UUID playerId) {
+        List<ActiveMission> missions = byPlayer.remove(playerId);
+        if (missions == null) return;
+        for (ActiveMission active : missions) {
+            unlink(active);
+            stateArena.release(active.state);
+        }
+    }
+
+    // 服务器停止时清空索引和触发器状态
+    public static void clear() {
+        byPlayer.clear();
+        byPlayerAndType.clear();
+        byBlock.clear();
+        byEntityType.clear();
+        stateArena.clear();
+    }
+
+    // 任务定义重新加载后刷新在线玩家的索引：定义未变的激活任务保留触发器状态，
+    // 定义变化或被移除的重新解析，之前缺少定义的尝试重新加入
+    public static void refresh(MinecraftServer server) {
+        if (server == null) return;
+        int relinked = 0;
+        for (ServerPlayer player : server.getPlayerList().getPlayers()) {
+            UUID playerId = player.getUUID();
+            List<ActiveMission> missions = byPlayer.get(playerId);
+            IntOpenHashSet indexed = new IntOpenHashSet();
+            if (missions != null) {
+                for (ActiveMission active : new ArrayList<>(missions)) {
+                    if (active.mission.getDefinition() == active.definition) {
+                        indexed.add(active.instanceId);
+                    } else {
+                        remove(playerId, active.instanceId);
+                    }
+                }
+            }
+
+            IntSet activated = player.getCapability(ModCapabilities.PLAYER_MISSIONS)
+                    .map(PlayerMissionData::getActivatedMissionInstances)
+                    .orElse(IntSets.EMPTY_SET);
+            for (IntIterator it = activated.iterator(); it.hasNext(); ) {
+                int instanceId = it.nextInt();
+                if (!indexed.contains(instanceId)) {
+                    add(player, instanceId);
+                    relinked++;
+                }
+            }
+        }
+        MissionCore.LOGGER.debug("刷新触发器分发索引: {} 名玩家, 重新解析 {} 个激活任务", byPlayer.size(), relinked);
+    }
+}
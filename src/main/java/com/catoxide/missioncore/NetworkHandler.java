@@ -1,11 +1,16 @@
 package com.catoxide.missioncore;
 
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import net.minecraft.client.Minecraft;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.client.event.ClientPlayerNetworkEvent;
 import net.minecraftforge.network.NetworkEvent;
 import net.minecraftforge.network.NetworkRegistry;
 import net.minecraftforge.network.PacketDistributor;
@@ -13,9 +18,11 @@ import net.minecraftforge.network.simple.SimpleChannel;
 
 import java.util.*;
 import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 public class NetworkHandler {
-    private static final String PROTOCOL_VERSION = "1";
+    private static final String PROTOCOL_VERSION = "2";
     public static final SimpleChannel INSTANCE = NetworkRegistry.newSimpleChannel(
             ResourceLocation.parse("missioncore:main"),
             () -> PROTOCOL_VERSION,
@@ -32,17 +39,39 @@ public class NetworkHandler {
                 UpdateMissionsPacket::decode,
                 UpdateMissionsPacket::handle);
 
-        // 注册 SyncSharedMissionsPacket
-        INSTANCE.registerMessage(id++, SyncSharedMissionsPacket.class,
-                SyncSharedMissionsPacket::encode,
-                SyncSharedMissionsPacket::decode,
-                SyncSharedMissionsPacket::handle);
-
-        // 注册 SyncPlayerMissionsPacket
-        INSTANCE.registerMessage(id++, SyncPlayerMissionsPacket.class,
-                SyncPlayerMissionsPacket::encode,
-                SyncPlayerMissionsPacket::decode,
-                SyncPlayerMissionsPacket::handle);
+        // 服务端 -> 客户端：任务数据增量
+        INSTANCE.registerMessage(id++, MissionDeltaPacket.class,
+                MissionDeltaPacket::encode,
+                MissionDeltaPacket::decode,
+                MissionDeltaPacket::handle);
+
+        // 客户端 -> 服务端：请求重新同步
+        INSTANCE.registerMessage(id++, RequestResyncPacket.class,
+                RequestResyncPacket::encode,
+                RequestResyncPacket::decode,
+                RequestResyncPacket::handle);
+
+        // 客户端 -> 服务端：重连续传
+        INSTANCE.registerMessage(id++, ResumeSessionPacket.class,
+                ResumeSessionPacket::encode,
+                ResumeSessionPacket::decode,
+                ResumeSessionPacket::handle);
+
+        // 任务定义同步：字典、请求缺少的定义、定义内容
+        INSTANCE.registerMessage(id++, DefinitionDictionaryPacket.class,
+                DefinitionDictionaryPacket::encode,
+                DefinitionDictionaryPacket::decode,
+                DefinitionDictionaryPacket::handle);
+
+        INSTANCE.registerMessage(id++, RequestDefinitionsPacket.class,
+                RequestDefinitionsPacket::encode,
+                RequestDefinitionsPacket::decode,
+                RequestDefinitionsPacket::handle);
+
+        INSTANCE.registerMessage(id++, DefinitionEntriesPacket.class,
+                DefinitionEntriesPacket::encode,
+                DefinitionEntriesPacket::decode,
+                DefinitionEntriesPacket::handle);
     }
 
     public static class UpdateMissionsPacket {
@@ -96,115 +125,352 @@ public class NetworkHandler {
         }
     }
 
-    public static class SyncSharedMissionsPacket {
-        private final Map<String, WorldSharedMissionData.SharedMission> missionProgress;
+    // 一批同步操作，格式见 MissionSync 的操作码和模式；会话开始的数据包附带存档纪元
+    public static class MissionDeltaPacket {
+        private final int sequence;
+        private final int mode;
+        private final int flags;
+        private final long epoch;
+        private final long version;
+        private final long activationVersion;
+        private final int opCount;
+        private final byte[] ops;
+
+        public MissionDeltaPacket(int sequence, int mode, int flags, long epoch, long version, long activationVersion,
+                                  int opCount, byte[] ops) {
+            this.sequence = sequence;
+            this.mode = mode;
+            this.flags = flags;
+            this.epoch = epoch;
+            this.version = version;
+            this.activationVersion = activationVersion;
+            this.opCount = opCount;
+            this.ops = ops;
+        }
+
+        public void encode(FriendlyByteBuf buffer) {
+            buffer.writeVarInt(sequence);
+            buffer.writeByte(mode);
+            buffer.writeByte(flags);
+            if (mode != MissionSync.MODE_DELTA) {
+                buffer.writeLong(epoch);
+            }
+            buffer.writeVarLong(version);
+            buffer.writeVarLong(activationVersion);
+            buffer.writeVarInt(opCount);
+            buffer.writeByteArray(ops);
+        }
+
+        public static MissionDeltaPacket decode(FriendlyByteBuf buffer) {
+            int sequence = buffer.readVarInt();
+            int mode = buffer.readByte();
+            int flags = buffer.readByte();
+            long epoch = mode != MissionSync.MODE_DELTA ? buffer.readLong() : 0;
+            long version = buffer.readVarLong();
+            long activationVersion = buffer.readVarLong();
+            int opCount = buffer.readVarInt();
+            byte[] ops = buffer.readByteArray();
+            return new MissionDeltaPacket(sequence, mode, flags, epoch, version, activationVersion, opCount, ops);
+        }
+
+        public void handle(Supplier<NetworkEvent.Context> ctx) {
+            ctx.get().enqueueWork(() -> ClientMissionData.apply(this));
+            ctx.get().setPacketHandled(true);
+        }
+    }
+
+    // 客户端 -> 服务端：登录时报告本地数据的纪元和最后看到的版本
+    public static class ResumeSessionPacket {
+        private final boolean hasState;
+        private final long epoch;
+        private final long version;
+        private final long activationVersion;
+
+        public ResumeSessionPacket(boolean hasState, long epoch, long version, long activationVersion) {
+            this.hasState = hasState;
+            this.epoch = epoch;
+            this.version = version;
+            this.activationVersion = activationVersion;
+        }
+
+        public void encode(FriendlyByteBuf buffer) {
+            buffer.writeBoolean(hasState);
+            buffer.writeLong(epoch);
+            buffer.writeVarLong(version);
+            buffer.writeVarLong(activationVersion);
+        }
+
+        public static ResumeSessionPacket decode(FriendlyByteBuf buffer) {
+            return new ResumeSessionPacket(buffer.readBoolean(), buffer.readLong(), buffer.readVarLong(), buffer.readVarLong());
+        }
+
+        public void handle(Supplier<NetworkEvent.Context> ctx) {
+            ctx.get().enqueueWork(() -> {
+                ServerPlayer player = ctx.get().getSender();
+                // 重复的续传请求按全量同步请求限流
+                if (player != null && MissionSync.acceptRequest(player)) {
+                    MissionDefinitionSync.sendDictionary(player);
+                    MissionSync.resume(player, hasState, epoch, version, activationVersion);
+                }
+            });
+            ctx.get().setPacketHandled(true);
+        }
+    }
 
-        public SyncSharedMissionsPacket(Map<String, WorldSharedMissionData.SharedMission> missionProgress) {
-            this.missionProgress = missionProgress;
+    // 服务端 -> 客户端：定义ID -> 内容哈希
+    public static class DefinitionDictionaryPacket {
+        private final Map<String, Long> dictionary;
+
+        public DefinitionDictionaryPacket(Map<String, Long> dictionary) {
+            this.dictionary = dictionary;
         }
 
         public void encode(FriendlyByteBuf buffer) {
-            buffer.writeInt(missionProgress.size());
-            missionProgress.forEach((id, mission) -> {
-                buffer.writeUtf(id);
-                buffer.writeInt(mission.progress);
-                buffer.writeInt(mission.target);
-                buffer.writeBoolean(mission.completed);
+            buffer.writeVarInt(dictionary.size());
+            dictionary.forEach((definitionId, hash) -> {
+                buffer.writeUtf(definitionId);
+                buffer.writeLong(hash);
             });
         }
 
-        public static SyncSharedMissionsPacket decode(FriendlyByteBuf buffer) {
-            int size = buffer.readInt();
-            Map<String, WorldSharedMissionData.SharedMission> progressMap = new HashMap<>();
+        public static DefinitionDictionaryPacket decode(FriendlyByteBuf buffer) {
+            int size = buffer.readVarInt();
+            Map<String, Long> dictionary = new HashMap<>();
             for (int i = 0; i < size; i++) {
-                String id = buffer.readUtf();
-                int progress = buffer.readInt();
-                int target = buffer.readInt();
-                boolean completed = buffer.readBoolean();
-
-                WorldSharedMissionData.SharedMission mission = new WorldSharedMissionData.SharedMission(id, target);
-                mission.progress = progress;
-                mission.completed = completed;
-                progressMap.put(id, mission);
+                dictionary.put(buffer.readUtf(), buffer.readLong());
             }
-            return new SyncSharedMissionsPacket(progressMap);
+            return new DefinitionDictionaryPacket(dictionary);
+        }
+
+        public void handle(Supplier<NetworkEvent.Context> ctx) {
+            ctx.get().enqueueWork(() -> ClientDefinitionCache.applyDictionary(dictionary));
+            ctx.get().setPacketHandled(true);
+        }
+    }
+
+    // 客户端 -> 服务端：请求本地缓存中没有的定义
+    public static class RequestDefinitionsPacket {
+        private final List<String> definitionIds;
+
+        public RequestDefinitionsPacket(List<String> definitionIds) {
+            this.definitionIds = definitionIds;
+        }
+
+        public void encode(FriendlyByteBuf buffer) {
+            buffer.writeCollection(definitionIds, FriendlyByteBuf::writeUtf);
+        }
+
+        public static RequestDefinitionsPacket decode(FriendlyByteBuf buffer) {
+            return new RequestDefinitionsPacket(buffer.readList(FriendlyByteBuf::readUtf));
         }
 
         public void handle(Supplier<NetworkEvent.Context> ctx) {
             ctx.get().enqueueWork(() -> {
-                // 客户端处理：更新所有共享任务进度
-                ClientMissionData.updateAllMissionProgress(this.missionProgress);
-                MissionCore.LOGGER.debug("客户端收到共享任务进度更新: {}", this.missionProgress.size());
+                ServerPlayer player = ctx.get().getSender();
+                if (player != null) {
+                    MissionDefinitionSync.sendEntries(player, definitionIds);
+                }
             });
             ctx.get().setPacketHandled(true);
         }
     }
-    public static class SyncPlayerMissionsPacket {
-        private final Set<String> activatedMissions;
 
-        public SyncPlayerMissionsPacket(Set<String> activatedMissions) {
-            this.activatedMissions = activatedMissions;
+    // 服务端 -> 客户端：定义内容
+    public static class DefinitionEntriesPacket {
+        private final List<MissionDefinitionSummary> entries;
+
+        public DefinitionEntriesPacket(List<MissionDefinitionSummary> entries) {
+            this.entries = entries;
         }
 
         public void encode(FriendlyByteBuf buffer) {
-            buffer.writeInt(activatedMissions.size());
-            for (String missionId : activatedMissions) {
-                buffer.writeUtf(missionId);
-            }
+            buffer.writeCollection(entries, (buf, entry) -> entry.encode(buf));
         }
 
-        public static SyncPlayerMissionsPacket decode(FriendlyByteBuf buffer) {
-            int size = buffer.readInt();
-            Set<String> missions = new HashSet<>();
-            for (int i = 0; i < size; i++) {
-                missions.add(buffer.readUtf());
-            }
-            return new SyncPlayerMissionsPacket(missions);
+        public static DefinitionEntriesPacket decode(FriendlyByteBuf buffer) {
+            return new DefinitionEntriesPacket(buffer.readList(MissionDefinitionSummary::decode));
+        }
+
+        public void handle(Supplier<NetworkEvent.Context> ctx) {
+            ctx.get().enqueueWork(() -> ClientDefinitionCache.addEntries(entries));
+            ctx.get().setPacketHandled(true);
+        }
+    }
+
+    public static class RequestResyncPacket {
+        public RequestResyncPacket() {
+        }
+
+        public void encode(FriendlyByteBuf buffer) {
+        }
+
+        public static RequestResyncPacket decode(FriendlyByteBuf buffer) {
+            return new RequestResyncPacket();
         }
 
         public void handle(Supplier<NetworkEvent.Context> ctx) {
             ctx.get().enqueueWork(() -> {
-                // 客户端处理：更新玩家激活的任务
-                ClientMissionData.setActivatedMissions(this.activatedMissions);
+                ServerPlayer player = ctx.get().getSender();
+                if (player != null) {
+                    MissionSync.resync(player);
+                }
             });
             ctx.get().setPacketHandled(true);
         }
     }
 
     public class ClientMissionData {
-        private static final Map<String, WorldSharedMissionData.SharedMission> missionProgress = new HashMap<>();
-        private static final Set<String> activatedMissions = new HashSet<>();
-
-        public static void updateProgress(Map<String, Integer> progressMap) {
-            missionProgress.clear();
-            progressMap.forEach((missionId, progressValue) -> {
-                // 这里需要从其他地方获取目标值，暂时设为0
-                WorldSharedMissionData.SharedMission mission = new WorldSharedMissionData.SharedMission(missionId, 0);
-                mission.progress = progressValue;
-                missionProgress.put(missionId, mission);
-            });
+        private static final Int2ObjectOpenHashMap<WorldSharedMissionData.SharedMission> missionProgress = new Int2ObjectOpenHashMap<>();
+        private static final IntOpenHashSet activatedMissions = new IntOpenHashSet();
+        private static final IntOpenHashSet bound = new IntOpenHashSet(); // 本会话中已绑定的实例
+        private static final Int2ObjectOpenHashMap<String> instanceDefinitions = new Int2ObjectOpenHashMap<>(); // 实例 -> 定义ID
+        private static final IntOpenHashSet sharedInstances = new IntOpenHashSet();
+        private static int expectedSequence = 0;
+        private static boolean awaitingResync = false;
+
+        // 断线后保留的数据版本，重连时报告给服务端
+        private static boolean hasState = false;
+        private static long epoch = 0;
+        private static long version = 0;
+        private static long activationVersion = 0;
+
+        // 登录服务器时请求续传；本地数据不完整时服务端会发送全量快照
+        public static void onLoggingIn(ClientPlayerNetworkEvent.LoggingIn event) {
+            awaitingResync = true; // 会话开始前的增量无法应用
+            INSTANCE.sendToServer(new ResumeSessionPacket(hasState, epoch, version, activationVersion));
         }
-        public static void updateAllMissionProgress(Map<String, WorldSharedMissionData.SharedMission> progressMap) {
-            missionProgress.clear();
-            missionProgress.putAll(progressMap);
+
+        // 按序应用服务端发来的操作；出现序号缺口时丢弃后续增量并请求全量快照
+        static void apply(MissionDeltaPacket packet) {
+            if (packet.mode == MissionSync.MODE_SNAPSHOT) {
+                missionProgress.clear();
+                activatedMissions.clear();
+                bound.clear();
+                instanceDefinitions.clear();
+                sharedInstances.clear();
+                awaitingResync = false;
+                epoch = packet.epoch;
+            } else if (packet.mode == MissionSync.MODE_RESUME) {
+                bound.clear();
+                awaitingResync = false;
+            } else if (awaitingResync) {
+                return;
+            } else if (packet.sequence != expectedSequence) {
+                MissionCore.LOGGER.warn("任务同步序号不连续: 期望 {}，收到 {}，请求重新同步", expectedSequence, packet.sequence);
+                requestResync();
+                return;
+            }
+            expectedSequence = packet.sequence + 1;
+
+            // 快照块按到达顺序逐块应用，不等待整个快照
+            try {
+                FriendlyByteBuf buffer = new FriendlyByteBuf(Unpooled.wrappedBuffer(
+                        (packet.flags & MissionSync.FLAG_COMPRESSED) != 0 ? decompress(packet.ops) : packet.ops));
+                for (int i = 0; i < packet.opCount; i++) {
+                    applyOp(buffer);
+                }
+            } catch (RuntimeException | DataFormatException e) {
+                MissionCore.LOGGER.error("解析任务同步数据失败，请求重新同步", e);
+                requestResync();
+                return;
+            }
+
+            // 快照发送完毕后本地数据才完整，之后才能用于重连续传
+            hasState = (packet.flags & MissionSync.FLAG_STREAMING) == 0;
+            version = packet.version;
+            activationVersion = packet.activationVersion;
         }
 
-        public static void updateMissionProgress(String instanceId, WorldSharedMissionData.SharedMission mission) {
-            missionProgress.put(instanceId, mission);
+        private static byte[] decompress(byte[] data) throws DataFormatException {
+            FriendlyByteBuf buffer = new FriendlyByteBuf(Unpooled.wrappedBuffer(data));
+            int rawLength = buffer.readVarInt();
+            if (rawLength < 0 || rawLength > MissionSync.MAX_CHUNK_BYTES) {
+                throw new DataFormatException("任务同步数据块过大: " + rawLength);
+            }
+
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data, buffer.readerIndex(), buffer.readableBytes());
+                byte[] raw = new byte[rawLength];
+                int length = inflater.inflate(raw);
+                if (length != rawLength || !inflater.finished()) {
+                    throw new DataFormatException("任务同步数据块长度不符: " + length + "/" + rawLength);
+                }
+                return raw;
+            } finally {
+                inflater.end();
+            }
         }
 
-        public static WorldSharedMissionData.SharedMission getMissionProgress(String missionId) {
-            return missionProgress.get(missionId);
+        private static void applyOp(FriendlyByteBuf buffer) {
+            int op = buffer.readVarInt();
+            int instanceId = buffer.readVarInt();
+            if (op != MissionSync.OP_BIND && op != MissionSync.OP_REMOVE && !bound.contains(instanceId)) {
+                throw new IllegalStateException("未绑定的任务实例: " + instanceId);
+            }
+            switch (op) {
+                case MissionSync.OP_BIND -> {
+                    String definitionId = buffer.readUtf();
+                    boolean shared = buffer.readBoolean();
+                    bound.add(instanceId);
+                    instanceDefinitions.put(instanceId, definitionId);
+                    if (shared) {
+                        sharedInstances.add(instanceId);
+                    } else {
+                        sharedInstances.remove(instanceId);
+                    }
+                }
+                case MissionSync.OP_STATE -> {
+                    WorldSharedMissionData.SharedMission mission =
+                            new WorldSharedMissionData.SharedMission(instanceId, buffer.readVarInt());
+                    mission.progress = buffer.readVarInt();
+                    mission.completed = buffer.readBoolean();
+                    missionProgress.put(instanceId, mission);
+                }
+                case MissionSync.OP_PROGRESS -> {
+                    int delta = buffer.readVarInt();
+                    boolean completed = buffer.readBoolean();
+                    WorldSharedMissionData.SharedMission mission = missionProgress.get(instanceId);
+                    if (mission == null) throw new IllegalStateException("收到未知任务的进度增量: " + instanceId);
+                    mission.progress += delta;
+                    mission.completed = completed;
+                }
+                case MissionSync.OP_ACTIVATE -> activatedMissions.add(instanceId);
+                case MissionSync.OP_DEACTIVATE -> activatedMissions.remove(instanceId);
+                case MissionSync.OP_REMOVE -> {
+                    missionProgress.remove(instanceId);
+                    activatedMissions.remove(instanceId);
+                    bound.remove(instanceId);
+                    instanceDefinitions.remove(instanceId);
+                    sharedInstances.remove(instanceId);
+                }
+                default -> throw new IllegalStateException("未知的任务同步操作: " + op);
+            }
+        }
+
+        private static void requestResync() {
+            awaitingResync = true;
+            hasState = false;
+            INSTANCE.sendToServer(new RequestResyncPacket());
         }
 
-        public static void setActivatedMissions(Set<String> missions) {
-            activatedMissions.clear();
-            activatedMissions.addAll(missions);
+        // 实例对应的定义，来自服务端同步的定义缓存
+        public static MissionDefinitionSummary getDefinition(int instanceId) {
+            String definitionId = instanceDefinitions.get(instanceId);
+            return definitionId != null ? ClientDefinitionCache.get(definitionId) : null;
+        }
+
+        public static boolean isShared(int instanceId) {
+            return sharedInstances.contains(instanceId);
+        }
+
+        public static WorldSharedMissionData.SharedMission getMissionProgress(int missionId) {
+            return missionProgress.get(missionId);
         }
 
-        public static Set<String> getActivatedMissions() {
-            return new HashSet<>(activatedMissions);
+        public static IntSet getActivatedMissions() {
+            return new IntOpenHashSet(activatedMissions);
         }
     }
 
-}
\ No newline at end of file
+}
@@ -1,10 +1,10 @@
 package com.catoxide.missioncore;
 
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntSets;
 import net.minecraft.core.Direction;
 import net.minecraft.nbt.CompoundTag;
-import net.minecraft.nbt.ListTag;
-import net.minecraft.nbt.StringTag;
-import net.minecraft.nbt.Tag;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.entity.Entity;
@@ -13,16 +13,13 @@ import net.minecraftforge.common.capabilities.*;
 import net.minecraftforge.common.util.LazyOptional;
 import net.minecraftforge.event.AttachCapabilitiesEvent;
 import net.minecraftforge.event.entity.player.PlayerEvent;
-import net.minecraftforge.network.PacketDistributor;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
 
 public class PlayerMissionData implements ICapabilitySerializable<CompoundTag> {
-    private final Set<String> activatedMissionInstances = new HashSet<>();
+    private final IntOpenHashSet activatedMissionInstances = new IntOpenHashSet();
+    private long activationVersion = 0; // 激活集合每次变化时递增，用于断线重连时判断客户端数据是否过期
     private final LazyOptional<PlayerMissionData> holder = LazyOptional.of(() -> this);
     private final Player player;
 
@@ -40,12 +37,9 @@ public class PlayerMissionData implements ICapabilitySerializable<CompoundTag> {
     public CompoundTag serializeNBT() {
         CompoundTag nbt = new CompoundTag();
 
-        // 序列化激活的任务实例
-        ListTag instancesList = new ListTag();
-        for (String instanceId : activatedMissionInstances) {
-            instancesList.add(StringTag.valueOf(instanceId));
-        }
-        nbt.put("activatedMissionInstances", instancesList);
+        // 序列化激活的任务实例句柄
+        nbt.putIntArray("activatedInstances", activatedMissionInstances.toIntArray());
+        nbt.putLong("activationVersion", activationVersion);
 
         return nbt;
     }
@@ -53,51 +47,59 @@ public class PlayerMissionData implements ICapabilitySerializable<CompoundTag> {
     @Override
     public void deserializeNBT(CompoundTag nbt) {
         activatedMissionInstances.clear();
+        activationVersion = nbt.getLong("activationVersion");
 
-        // 加载实例ID
-        if (nbt.contains("activatedMissionInstances", Tag.TAG_LIST)) {
-            ListTag list = nbt.getList("activatedMissionInstances", Tag.TAG_STRING);
-            for (int i = 0; i < list.size(); i++) {
-                activatedMissionInstances.add(list.getString(i));
-            }
+        // 加载实例句柄；旧版本保存的UUID字符串实例在重启后已无法解析，不再读取
+        for (int instanceId : nbt.getIntArray("activatedInstances")) {
+            activatedMissionInstances.add(instanceId);
         }
     }
 
-    public void activateMissionInstance(String instanceId) {
+    public void activateMissionInstance(int instanceId) {
         activatedMissionInstances.add(instanceId);
+        activationVersion++;
+        if (player instanceof ServerPlayer serverPlayer) {
+            MissionTriggerIndex.add(player, instanceId);
+            MissionSubscriptions.subscribe(player.getUUID(), instanceId);
+
+            // 新激活的任务连同其当前进度一起同步到客户端
+            MissionSync.Batch batch = MissionSync.begin(serverPlayer);
+            WorldSharedMissionData.SharedMission mission =
+                    WorldSharedMissionData.get(serverPlayer.serverLevel()).getSharedMission(instanceId);
+            if (mission != null) {
+                batch.progress(mission);
+            }
+            batch.activate(instanceId).send();
+        }
         setDirty();
-        syncToClient(); // 新增：同步到客户端
     }
 
-    public void deactivateMissionInstance(String instanceId) {
+    public void deactivateMissionInstance(int instanceId) {
         activatedMissionInstances.remove(instanceId);
+        activationVersion++;
+        if (player instanceof ServerPlayer serverPlayer) {
+            MissionTriggerIndex.remove(player.getUUID(), instanceId);
+            MissionSubscriptions.unsubscribe(player.getUUID(), instanceId);
+            MissionSync.begin(serverPlayer).deactivate(instanceId).send();
+        }
         setDirty();
-        syncToClient(); // 新增：同步到客户端
     }
 
-    public boolean hasMissionInstanceActivated(String instanceId) {
+    public boolean hasMissionInstanceActivated(int instanceId) {
         return activatedMissionInstances.contains(instanceId);
     }
 
-    public Set<String> getActivatedMissionInstances() {
-        return Collections.unmodifiableSet(activatedMissionInstances);
+    public IntSet getActivatedMissionInstances() {
+        return IntSets.unmodifiable(activatedMissionInstances);
     }
 
-    public Mission getMission(String instanceId) {
-        return MissionInstanceManager.getMission(instanceId);
-    }
-    private void syncToClient() {
-        if (player instanceof ServerPlayer) {
-            MissionCore.LOGGER.info("同步 {} 个激活任务给玩家 {}",
-                    activatedMissionInstances.size(), player.getName().getString());
-
-            NetworkHandler.INSTANCE.send(
-                    PacketDistributor.PLAYER.with(() -> (ServerPlayer) player),
-                    new NetworkHandler.SyncPlayerMissionsPacket(activatedMissionInstances)
-            );
-        }
+    public long getActivationVersion() {
+        return activationVersion;
     }
 
+    public Mission getMission(int instanceId) {
+        return MissionInstanceManager.getMission(instanceId);
+    }
     // 标记数据已更改
     public void setDirty() {
         // 通知能力系统数据已更改
@@ -133,6 +135,7 @@ public class PlayerMissionData implements ICapabilitySerializable<CompoundTag> {
             newPlayer.getCapability(ModCapabilities.PLAYER_MISSIONS).ifPresent(newData -> {
                 newData.activatedMissionInstances.clear();
                 newData.activatedMissionInstances.addAll(oldData.activatedMissionInstances);
+                newData.activationVersion = oldData.activationVersion;
 
                 if (newPlayer instanceof ServerPlayer) {
                     newData.setDirty();
@@ -0,0 +1,177 @@
+package com.catoxide.missioncore;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// 服务端玩家空间索引：按世界和区块对在线玩家分桶，并记录最近与各位置交互的玩家
+public class PlayerSpatialIndex {
+    private static final int ATTRIBUTION_RADIUS = 16; // 方块状态变化归属的最大距离
+    private static final int INTERACTION_CACHE_SIZE = 1024; // 每个世界保留的交互记录数
+    private static final long INTERACTION_TTL_TICKS = 40; // 交互记录有效期（2秒）
+
+    // 最近一次与某位置交互的玩家
+    private static class Interaction {
+        final ServerPlayer player;
+        final long gameTime;
+
+        Interaction(ServerPlayer player, long gameTime) {
+            this.player = player;
+            this.gameTime = gameTime;
+        }
+    }
+
+    // 玩家当前所在的世界与区块
+    private static class Location {
+        final ResourceKey<Level> dimension;
+        final long chunk;
+
+        Location(ResourceKey<Level> dimension, long chunk) {
+            this.dimension = dimension;
+            this.chunk = chunk;
+        }
+    }
+
+    // 世界 -> 区块 -> 区块内的玩家
+    private static final Map<ResourceKey<Level>, Long2ObjectOpenHashMap<List<ServerPlayer>>> playersByChunk = new HashMap<>();
+    private static final Map<UUID, Location> locations = new HashMap<>();
+
+    // 世界 -> 方块位置 -> 最近交互，按插入顺序淘汰
+    private static final Map<ResourceKey<Level>, Long2ObjectLinkedOpenHashMap<Interaction>> interactions = new HashMap<>();
+
+    // 玩家进入世界
+    public static void add(ServerPlayer player, ServerLevel level) {
+        removeStale(player.getUUID());
+        long chunk = ChunkPos.asLong(SectionPos.blockToSectionCoord(player.getBlockX()), SectionPos.blockToSectionCoord(player.getBlockZ()));
+        put(player, level.dimension(), chunk);
+    }
+
+    // 玩家跨越区块边界
+    public static void move(ServerPlayer player, SectionPos newSection) {
+        Location location = locations.get(player.getUUID());
+        if (location == null) return;
+
+        long chunk = ChunkPos.asLong(newSection.x(), newSection.z());
+        if (chunk == location.chunk) return;
+
+        removeStale(player.getUUID());
+        put(player, location.dimension, chunk);
+    }
+
+    // 玩家离开世界；重生时旧的玩家实体可能晚于新实体离开，只移除同一个实体
+    public static void remove(ServerPlayer player) {
+        Location location = locations.get(player.getUUID());
+        if (location == null) return;
+
+        Long2ObjectOpenHashMap<List<ServerPlayer>> chunks = playersByChunk.get(location.dimension);
+        List<ServerPlayer> players = chunks != null ? chunks.get(location.chunk) : null;
+        if (players == null || !players.remove(player)) return;
+
+        if (players.isEmpty()) chunks.remove(location.chunk);
+        locations.remove(player.getUUID());
+    }
+
+    private static void removeStale(UUID playerId) {
+        Location location = locations.remove(playerId);
+        if (location == null) return;
+
+        Long2ObjectOpenHashMap<List<ServerPlayer>> chunks = playersByChunk.get(location.dimension);
+        List<ServerPlayer> players = chunks != null ? chunks.get(location.chunk) : null;
+        if (players == null) return;
+
+        players.removeIf(p -> p.getUUID().equals(playerId));
+        if (players.isEmpty()) chunks.remove(location.chunk);
+    }
+
+    private static void put(ServerPlayer player, ResourceKey<Level> dimension, long chunk) {
+        playersByChunk.computeIfAbsent(dimension, d -> new Long2ObjectOpenHashMap<>())
+                .computeIfAbsent(chunk, c -> new ArrayList<>())
+                .add(player);
+        locations.put(player.getUUID(), new Location(dimension, chunk));
+    }
+
+    // 记录玩家与方块的交互，供随后的方块状态变化归属使用
+    public static void recordInteraction(ServerLevel level, BlockPos pos, ServerPlayer player) {
+        Long2ObjectLinkedOpenHashMap<Interaction> cache =
+                interactions.computeIfAbsent(level.dimension(), d -> new Long2ObjectLinkedOpenHashMap<>());
+        cache.putAndMoveToLast(pos.asLong(), new Interaction(player, level.getGameTime()));
+        if (cache.size() > INTERACTION_CACHE_SIZE) {
+            cache.removeFirst();
+        }
+    }
+
+    // 找出应为该位置方块状态变化获得进度的玩家：优先最近的交互者，否则取附近最近的玩家
+    @Nullable
+    public static ServerPlayer findActor(ServerLevel level, BlockPos pos) {
+        ServerPlayer actor = findInteractor(level, pos.asLong());
+        if (actor == null) actor = findInteractor(level, BlockPos.offset(pos.asLong(), 0, 1, 0)); // 门等双格方块
+        if (actor == null) actor = findInteractor(level, BlockPos.offset(pos.asLong(), 0, -1, 0));
+        return actor != null ? actor : findNearest(level, pos);
+    }
+
+    @Nullable
+    private static ServerPlayer findInteractor(ServerLevel level, long packedPos) {
+        Long2ObjectLinkedOpenHashMap<Interaction> cache = interactions.get(level.dimension());
+        if (cache == null) return null;
+
+        Interaction interaction = cache.get(packedPos);
+        if (interaction == null) return null;
+        if (level.getGameTime() - interaction.gameTime > INTERACTION_TTL_TICKS
+                || interaction.player.hasDisconnected()
+                || interaction.player.level() != level) {
+            return null;
+        }
+        return interaction.player;
+    }
+
+    // 只检查覆盖归属范围的区块桶，而不是遍历世界内所有玩家
+    @Nullable
+    private static ServerPlayer findNearest(ServerLevel level, BlockPos pos) {
+        Long2ObjectOpenHashMap<List<ServerPlayer>> chunks = playersByChunk.get(level.dimension());
+        if (chunks == null || chunks.isEmpty()) return null;
+
+        int minX = SectionPos.blockToSectionCoord(pos.getX() - ATTRIBUTION_RADIUS);
+        int maxX = SectionPos.blockToSectionCoord(pos.getX() + ATTRIBUTION_RADIUS);
+        int minZ = SectionPos.blockToSectionCoord(pos.getZ() - ATTRIBUTION_RADIUS);
+        int maxZ = SectionPos.blockToSectionCoord(pos.getZ() + ATTRIBUTION_RADIUS);
+
+        ServerPlayer nearest = null;
+        double nearestDist = Double.MAX_VALUE;
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                List<ServerPlayer> players = chunks.get(ChunkPos.asLong(x, z));
+                if (players == null) continue;
+                for (int i = 0; i < players.size(); i++) {
+                    ServerPlayer player = players.get(i);
+                    if (!player.blockPosition().closerThan(pos, ATTRIBUTION_RADIUS)) continue;
+                    double dist = player.blockPosition().distSqr(pos);
+                    if (dist < nearestDist) {
+                        nearest = player;
+                        nearestDist = dist;
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    // 服务器停止时清空
+    public static void clear() {
+        playersByChunk.clear();
+        locations.clear();
+        interactions.clear();
+    }
+}
@@ -1,41 +1,136 @@
 package com.catoxide.missioncore;
 
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntSets;
+import net.minecraft.Util;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
-import net.minecraft.nbt.StringTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.Tag;
 import net.minecraft.network.chat.Component;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.dimension.DimensionType;
 import net.minecraft.world.level.saveddata.SavedData;
-import net.minecraftforge.network.PacketDistributor;
+import net.minecraft.world.level.storage.LevelResource;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
+// 共享任务数据：主文件只保存纪元和版本号，任务进度和玩家激活状态按哈希分片保存到独立文件，
+// 每个分片单独标记修改，保存时只重写有变化的分片
 public class WorldSharedMissionData extends SavedData {
     private static final String DATA_NAME = "missioncore_shared_missions";
+    private static final int SHARD_COUNT = 64; // 必须是2的幂
+    private static final int COMPACT_RECORDS = 1 << 16; // 日志段记录数达到该值时在后台合并到分片
 
     // 存储共享任务进度
-    final Map<String, SharedMission> sharedMissions = new HashMap<>();
+    final Int2ObjectOpenHashMap<SharedMission> sharedMissions = new Int2ObjectOpenHashMap<>();
 
     // 玩家激活状态
-    final Map<UUID, Set<String>> playerActivations = new HashMap<>();
+    final Map<UUID, IntOpenHashSet> playerActivations = new HashMap<>();
+
+    // 版本号：只使用主世界实例的计数器，保证各维度的任务版本可比较；纪元在存档创建时随机生成，
+    // 客户端记录的纪元不一致时说明其版本号不属于本存档
+    private long epoch = new Random().nextLong();
+    private long versionCounter = 0;
+    // 最近一次移除共享任务的版本号（只使用主世界实例）：客户端版本早于它时无法续传，需要全量快照
+    private long removalVersion = 0;
+    // 本世界重放日志时遇到的最新移除
+    private long replayedRemovalVersion = 0;
+
+    // 本tick内累计的进度增量，tick结束时统一结算并同步
+    private final Int2IntOpenHashMap pendingProgress = new Int2IntOpenHashMap();
+
+    // 本tick内有待结算进度的世界
+    private static final Map<ServerLevel, WorldSharedMissionData> pendingLevels = new IdentityHashMap<>();
+
+    // 有未保存修改的分片
+    private final BitSet dirtyShards = new BitSet(SHARD_COUNT);
+    private boolean shardsLoaded = false;
+    // 主文件仍是旧版本格式（包含全部数据），尚未完整写入分片
+    private boolean legacyPending = false;
+    // 各分片文件已包含的最大版本号，重放日志时跳过不超过该版本的记录
+    private final long[] shardCheckpoints = new long[SHARD_COUNT];
+    // 本世界数据最后一次变化的版本号，写入分片时作为检查点
+    private long lastVersion = 0;
+
+    // 进度预写日志：分片保存之间的变化先追加到日志，崩溃后重放
+    private MissionProgressJournal journal;
+    private Path shardDirectory;
+    // 后台合并按快照顺序串行写入分片；写入失败的分片在下次保存时重写，在此之前保留日志段
+    private CompletableFuture<Void> pendingCompaction = CompletableFuture.completedFuture(null);
+    private final BitSet failedShards = new BitSet(SHARD_COUNT);
+    private volatile boolean journalPinned = false;
 
     public static WorldSharedMissionData get(ServerLevel world) {
-        return world.getDataStorage().computeIfAbsent(
+        WorldSharedMissionData data = world.getDataStorage().computeIfAbsent(
                 WorldSharedMissionData::load,
                 WorldSharedMissionData::new,
                 DATA_NAME
         );
+        if (!data.shardsLoaded) {
+            Path root = world.getServer().getWorldPath(LevelResource.ROOT);
+            Path directory = getShardDirectory(DimensionType.getStorageFolder(world.dimension(), root).resolve("data").toFile());
+            data.loadShards(directory);
+
+            // 重放上次保存之后的进度；分片检查点和重放出的最大版本号推进全局计数器，
+            // 后台合并写入的分片可能比主文件中的计数器更新
+            data.openJournal(directory);
+            WorldSharedMissionData versionRoot = world.dimension() == Level.OVERWORLD ? data : get(world.getServer().overworld());
+            if (data.lastVersion > versionRoot.versionCounter) {
+                // 主文件落后于分片或日志，期间可能有未记录的移除，保守地让旧客户端重新获取快照
+                versionRoot.versionCounter = data.lastVersion;
+                versionRoot.removalVersion = Math.max(versionRoot.removalVersion, data.lastVersion);
+                versionRoot.setDirty();
+            }
+            if (data.replayedRemovalVersion > versionRoot.removalVersion) {
+                versionRoot.removalVersion = data.replayedRemovalVersion;
+                versionRoot.setDirty();
+            }
+        }
+        return data;
+    }
+
+    private static Path getShardDirectory(File dataDirectory) {
+        return dataDirectory.toPath().resolve(DATA_NAME);
+    }
+
+    private static int shardOf(int instanceId) {
+        return HashCommon.mix(instanceId) & (SHARD_COUNT - 1);
+    }
+
+    private static int shardOf(UUID playerId) {
+        return HashCommon.mix(playerId.hashCode()) & (SHARD_COUNT - 1);
+    }
+
+    private void markDirty(int instanceId) {
+        dirtyShards.set(shardOf(instanceId));
+        setDirty();
     }
 
     // 内部类：共享任务
     public static class SharedMission {
-        public final String instanceId;
+        public final int instanceId;
         public int progress;
         public final int target;
         public boolean completed;
+        public long version; // 最后一次变化时的全局版本号
 
-        public SharedMission(String instanceId, int target) {
+        public SharedMission(int instanceId, int target) {
             this.instanceId = instanceId;
             this.target = target;
         }
@@ -49,75 +144,370 @@ public class WorldSharedMissionData extends SavedData {
         }
     }
 
-    // 更新任务进度 - 确保只增加指定的数量
-    public void updateMissionProgress(ServerLevel level, String instanceId, int amount) {
+    // 更新任务进度 - 确保只增加指定的数量；增量先缓冲，在tick结束时统一结算
+    public void updateMissionProgress(ServerLevel level, int instanceId, int amount) {
         SharedMission mission = sharedMissions.get(instanceId);
         if (mission != null && !mission.completed) {
-            mission.updateProgress(amount);
+            pendingProgress.addTo(instanceId, amount);
+            pendingLevels.put(level, this);
+        }
+    }
+
+    // 在服务器tick结束时结算所有世界缓冲的进度
+    public static void flushAll() {
+        if (pendingLevels.isEmpty()) return;
+        pendingLevels.forEach((level, data) -> data.flush(level));
+        pendingLevels.clear();
+    }
+
+    // 服务器停止时丢弃未结算的缓冲
+    public static void clearPending() {
+        pendingLevels.clear();
+    }
+
+    // 应用本tick的进度增量：完成任务、发放奖励，并且只同步发生变化的任务
+    private void flush(ServerLevel level) {
+        List<SharedMission> changed = new ArrayList<>();
+        long version = 0;
+        for (Int2IntMap.Entry entry : pendingProgress.int2IntEntrySet()) {
+            SharedMission mission = sharedMissions.get(entry.getIntKey());
+            if (mission == null || mission.completed) continue;
 
+            mission.updateProgress(entry.getIntValue());
+            if (version == 0) version = nextVersion(level);
+            mission.version = version;
+            lastVersion = version;
             if (mission.completed) {
-                distributeRewards(level, instanceId);
+                distributeRewards(level, mission.instanceId);
             }
-            setDirty();
+            changed.add(mission);
+            markDirty(mission.instanceId);
+            if (journal != null) {
+                journal.appendProgress(mission.instanceId, mission.progress, mission.target, mission.completed, mission.version);
+            }
+        }
+        pendingProgress.clear();
 
-            // 发送同步数据包给所有玩家
-            syncToAllPlayers(level);
+        if (!changed.isEmpty()) {
+            syncChangesToSubscribers(level, changed);
+            if (journal != null && journal.size() >= COMPACT_RECORDS) {
+                compactInBackground();
+            }
         }
     }
 
-    // 激活任务（全局）
-    public void activateMission(String instanceId, int target) {
-        sharedMissions.putIfAbsent(instanceId, new SharedMission(instanceId, target));
-        setDirty();
+    // 激活任务（全局）：实例句柄是新分配的，同句柄的残留数据（例如崩溃前未保存实例的任务）直接覆盖
+    public void activateMission(ServerLevel level, int instanceId, int target) {
+        SharedMission mission = new SharedMission(instanceId, target);
+        mission.version = nextVersion(level);
+        lastVersion = mission.version;
+        if (sharedMissions.put(instanceId, mission) != null) {
+            MissionCore.LOGGER.warn("共享任务实例 {} 已存在，覆盖旧的进度", instanceId);
+        }
+        markDirty(instanceId);
+        if (journal != null) journal.appendActivate(instanceId, target, mission.version);
     }
 
+    // 移除共享任务，并通知仍订阅该任务的在线玩家
+    public void removeMission(ServerLevel level, int instanceId) {
+        if (sharedMissions.remove(instanceId) != null) {
+            pendingProgress.remove(instanceId);
+            lastVersion = nextVersion(level);
+            get(level.getServer().overworld()).removalVersion = lastVersion;
+            markDirty(instanceId);
+            if (journal != null) journal.appendRemove(instanceId, lastVersion);
 
-    // 同步任务进度给所有玩家
-    public void syncToAllPlayers(ServerLevel level) {
-        Map<String, SharedMission> progressMap = new HashMap<>();
-        sharedMissions.forEach((id, mission) -> progressMap.put(id, mission));
+            for (UUID playerId : MissionSubscriptions.getSubscribers(instanceId)) {
+                ServerPlayer player = level.getServer().getPlayerList().getPlayer(playerId);
+                if (player != null) {
+                    MissionSync.begin(player).remove(instanceId).send();
+                }
+            }
+        }
+    }
 
-        for (ServerPlayer player : level.getServer().getPlayerList().getPlayers()) {
-            NetworkHandler.INSTANCE.send(
-                    PacketDistributor.PLAYER.with(() -> player),
-                    new NetworkHandler.SyncSharedMissionsPacket(progressMap)
-            );
+    // 分配新的全局版本号
+    private static long nextVersion(ServerLevel level) {
+        WorldSharedMissionData root = get(level.getServer().overworld());
+        root.setDirty();
+        return ++root.versionCounter;
+    }
+
+    // 当前的全局版本号：客户端收到的数据包含此版本之前订阅任务的所有变化
+    public static long currentVersion(MinecraftServer server) {
+        return get(server.overworld()).versionCounter;
+    }
+
+    public static long removalVersion(MinecraftServer server) {
+        return get(server.overworld()).removalVersion;
+    }
+
+    public static long epoch(MinecraftServer server) {
+        return get(server.overworld()).epoch;
+    }
+
+
+    // 玩家登录时订阅其激活的任务：能力数据中的激活实例以及本世界记录的激活状态
+    public void subscribe(ServerPlayer player, IntSet activatedInstances) {
+        UUID playerId = player.getUUID();
+        for (IntIterator it = activatedInstances.iterator(); it.hasNext(); ) {
+            MissionSubscriptions.subscribe(playerId, it.nextInt());
+        }
+        IntOpenHashSet recorded = playerActivations.get(playerId);
+        if (recorded != null) {
+            for (IntIterator it = recorded.iterator(); it.hasNext(); ) {
+                MissionSubscriptions.subscribe(playerId, it.nextInt());
+            }
+        }
+    }
+
+    // 向玩家发送其订阅的全部共享任务和激活集合的全量快照（替换客户端数据）
+    public void syncSubscribedTo(ServerPlayer player) {
+        List<SharedMission> missions = new ArrayList<>();
+        for (IntIterator it = MissionSubscriptions.getSubscriptions(player.getUUID()).iterator(); it.hasNext(); ) {
+            SharedMission mission = sharedMissions.get(it.nextInt());
+            if (mission != null) {
+                missions.add(mission);
+            }
         }
+
+        IntSet activated = player.getCapability(ModCapabilities.PLAYER_MISSIONS)
+                .map(PlayerMissionData::getActivatedMissionInstances)
+                .orElse(IntSets.EMPTY_SET);
+        MissionSync.sendSnapshot(player, missions, activated);
+    }
+
+    // 只把发生变化的任务发送给订阅了它们的在线玩家，客户端已知的任务只发送进度增量
+    private void syncChangesToSubscribers(ServerLevel level, List<SharedMission> changed) {
+        Map<UUID, List<SharedMission>> byPlayer = new HashMap<>();
+        for (SharedMission mission : changed) {
+            for (UUID playerId : MissionSubscriptions.getSubscribers(mission.instanceId)) {
+                byPlayer.computeIfAbsent(playerId, id -> new ArrayList<>()).add(mission);
+            }
+        }
+
+        byPlayer.forEach((playerId, missions) -> {
+            ServerPlayer player = level.getServer().getPlayerList().getPlayer(playerId);
+            if (player != null) {
+                MissionSync.Batch batch = MissionSync.begin(player);
+                missions.forEach(batch::progress);
+                batch.send();
+            }
+        });
     }
 
-    // 序列化/反序列化
+    // 序列化/反序列化：主文件只保存纪元和版本号
     @Override
     public CompoundTag save(CompoundTag tag) {
-        ListTag missionsList = new ListTag();
-        sharedMissions.forEach((instanceId, mission) -> {
-            CompoundTag missionTag = new CompoundTag();
-            missionTag.putString("instanceId", instanceId);
-            missionTag.putInt("progress", mission.progress);
-            missionTag.putInt("target", mission.target);
-            missionTag.putBoolean("completed", mission.completed);
-            missionsList.add(missionTag);
-        });
-        tag.put("sharedMissions", missionsList);
-        // 保存激活状态
-        CompoundTag activationsTag = new CompoundTag();
+        tag.putLong("epoch", epoch);
+        tag.putLong("version", versionCounter);
+        tag.putLong("removalVersion", removalVersion);
+        return tag;
+    }
+
+    // 先写入有变化的分片并删除已合并的日志段，再保存主文件
+    @Override
+    public void save(File file) {
+        // 等待后台合并完成，保证分片按快照顺序写入
+        pendingCompaction.join();
+        synchronized (failedShards) {
+            dirtyShards.or(failedShards);
+            failedShards.clear();
+        }
+
+        boolean shardsSaved = true;
+        if (!dirtyShards.isEmpty()) {
+            Path directory = getShardDirectory(file.getParentFile());
+            long generation = journal != null ? journal.rotate() : 0;
+            BitSet failed = writeShards(directory, snapshotDirtyShards());
+            if (failed.isEmpty()) {
+                journalPinned = false;
+                if (journal != null) journal.deleteBefore(generation);
+            } else {
+                dirtyShards.or(failed); // 写入失败的分片留到下次保存，日志段保留
+                shardsSaved = false;
+            }
+        }
+
+        // 旧版本主文件是共享任务数据的唯一副本，所有分片写入成功之前不覆盖
+        if (legacyPending && !shardsSaved) {
+            setDirty();
+            return;
+        }
+        legacyPending = false;
+        super.save(file);
+        if (!shardsSaved) setDirty();
+    }
+
+    // 日志过长时合并：在服务器线程上快照有变化的分片并切换日志段，在IO线程上写入分片
+    private void compactInBackground() {
+        if (shardDirectory == null || dirtyShards.isEmpty()) return;
+
+        Path directory = shardDirectory;
+        long generation = journal.rotate();
+        CompoundTag[] shards = snapshotDirtyShards();
+        pendingCompaction = pendingCompaction.thenRunAsync(() -> {
+            BitSet failed = writeShards(directory, shards);
+            if (!failed.isEmpty()) {
+                journalPinned = true;
+                synchronized (failedShards) {
+                    failedShards.or(failed);
+                }
+            } else if (!journalPinned) {
+                journal.deleteBefore(generation);
+            }
+        }, Util.ioPool());
+    }
+
+    // 一次遍历把有变化分片的数据分桶并清除修改标记，未变化的分片不序列化
+    private CompoundTag[] snapshotDirtyShards() {
+        CompoundTag[] shards = new CompoundTag[SHARD_COUNT];
+        for (int shard = dirtyShards.nextSetBit(0); shard >= 0; shard = dirtyShards.nextSetBit(shard + 1)) {
+            CompoundTag shardTag = new CompoundTag();
+            shardTag.put("sharedMissions", new ListTag());
+            shardTag.put("activations", new CompoundTag());
+            shardTag.putLong("checkpoint", lastVersion);
+            shardCheckpoints[shard] = lastVersion;
+            shards[shard] = shardTag;
+        }
+        for (SharedMission mission : sharedMissions.values()) {
+            CompoundTag shardTag = shards[shardOf(mission.instanceId)];
+            if (shardTag != null) {
+                shardTag.getList("sharedMissions", Tag.TAG_COMPOUND).add(saveMission(mission));
+            }
+        }
         playerActivations.forEach((playerId, missions) -> {
-            ListTag list = new ListTag();
-            missions.forEach(missionId -> list.add(StringTag.valueOf(missionId)));
-            activationsTag.put(playerId.toString(), list);
+            CompoundTag shardTag = shards[shardOf(playerId)];
+            if (shardTag != null) {
+                shardTag.getCompound("activations").putIntArray(playerId.toString(), missions.toIntArray());
+            }
         });
-        tag.put("activations", activationsTag);
+        dirtyShards.clear();
+        return shards;
+    }
 
-        return tag;
+    // 写入快照中的分片，返回写入失败的分片
+    private static BitSet writeShards(Path directory, CompoundTag[] shards) {
+        BitSet failed = new BitSet(SHARD_COUNT);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            MissionCore.LOGGER.error("无法创建共享任务分片目录: {}", directory, e);
+            for (int shard = 0; shard < SHARD_COUNT; shard++) {
+                if (shards[shard] != null) failed.set(shard);
+            }
+            return failed;
+        }
+
+        int written = 0;
+        for (int shard = 0; shard < SHARD_COUNT; shard++) {
+            if (shards[shard] == null) continue;
+            if (writeShard(directory, shard, shards[shard])) {
+                written++;
+            } else {
+                failed.set(shard);
+            }
+        }
+        MissionCore.LOGGER.debug("保存共享任务分片: {}/{}", written, SHARD_COUNT);
+        return failed;
     }
 
-    public static WorldSharedMissionData load(CompoundTag tag) {
-        WorldSharedMissionData data = new WorldSharedMissionData();
+    private static boolean writeShard(Path directory, int shard, CompoundTag tag) {
+        // 空分片也要写入，保留检查点，防止未删除的旧日志段在重放时恢复已移除的任务
+        Path file = directory.resolve("shard_" + shard + ".dat");
+        try {
+            // 先写临时文件再替换，避免中断时留下不完整的分片
+            Path temp = directory.resolve("shard_" + shard + ".dat.tmp");
+            NbtIo.writeCompressed(tag, temp.toFile());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            MissionCore.LOGGER.error("保存共享任务分片失败: {}", file, e);
+            return false;
+        }
+    }
+
+    private void loadShards(Path directory) {
+        shardsLoaded = true;
+        shardDirectory = directory;
+        for (int shard = 0; shard < SHARD_COUNT; shard++) {
+            File file = directory.resolve("shard_" + shard + ".dat").toFile();
+            if (!file.isFile()) continue;
+            try {
+                CompoundTag tag = NbtIo.readCompressed(file);
+                loadEntries(tag);
+                shardCheckpoints[shard] = tag.getLong("checkpoint");
+                lastVersion = Math.max(lastVersion, shardCheckpoints[shard]);
+            } catch (IOException e) {
+                MissionCore.LOGGER.error("读取共享任务分片失败: {}", file, e);
+            }
+        }
+    }
+
+    // 打开进度日志并重放到已加载的分片数据上：分片检查点之前的记录已经包含在分片中，跳过
+    private void openJournal(Path directory) {
+        try {
+            journal = MissionProgressJournal.open(directory, (type, instanceId, progress, target, completed, version) -> {
+                if (version <= shardCheckpoints[shardOf(instanceId)]) return;
+                lastVersion = Math.max(lastVersion, version);
+                SharedMission mission = sharedMissions.get(instanceId);
+                switch (type) {
+                    case MissionProgressJournal.ACTIVATE -> {
+                        if (mission == null || version >= mission.version) {
+                            sharedMissions.put(instanceId, newMission(instanceId, target, version));
+                        }
+                    }
+                    case MissionProgressJournal.PROGRESS -> {
+                        // 记录保存的是变化后的完整状态
+                        if (mission == null) {
+                            mission = newMission(instanceId, target, 0);
+                            sharedMissions.put(instanceId, mission);
+                        }
+                        if (version >= mission.version) {
+                            mission.progress = progress;
+                            mission.completed = completed;
+                            mission.version = version;
+                        }
+                    }
+                    case MissionProgressJournal.REMOVE -> {
+                        sharedMissions.remove(instanceId);
+                        replayedRemovalVersion = Math.max(replayedRemovalVersion, version);
+                    }
+                    default -> {
+                        return;
+                    }
+                }
+                markDirty(instanceId);
+            });
+        } catch (IOException e) {
+            MissionCore.LOGGER.error("打开任务进度日志失败: {}", directory, e);
+        }
+    }
 
+    private static SharedMission newMission(int instanceId, int target, long version) {
+        SharedMission mission = new SharedMission(instanceId, target);
+        mission.version = version;
+        return mission;
+    }
+
+    private static CompoundTag saveMission(SharedMission mission) {
+        CompoundTag missionTag = new CompoundTag();
+        missionTag.putInt("instance", mission.instanceId);
+        missionTag.putInt("progress", mission.progress);
+        missionTag.putInt("target", mission.target);
+        missionTag.putBoolean("completed", mission.completed);
+        missionTag.putLong("version", mission.version);
+        return missionTag;
+    }
+
+    // 读取任务进度和激活状态，分片文件和旧版本的主文件格式相同
+    private void loadEntries(CompoundTag tag) {
         // 加载共享任务
-        ListTag missionsList = tag.getList("sharedMissions", 10);
+        ListTag missionsList = tag.getList("sharedMissions", Tag.TAG_COMPOUND);
         for (int i = 0; i < missionsList.size(); i++) {
             CompoundTag missionTag = missionsList.getCompound(i);
-            String instanceId = missionTag.getString("instanceId");
+            if (!missionTag.contains("instance", Tag.TAG_INT)) continue; // 旧版本的UUID字符串实例已无法解析
+            int instanceId = missionTag.getInt("instance");
             int progress = missionTag.getInt("progress");
             int target = missionTag.getInt("target");
             boolean completed = missionTag.getBoolean("completed");
@@ -125,40 +515,53 @@ public class WorldSharedMissionData extends SavedData {
             SharedMission mission = new SharedMission(instanceId, target);
             mission.progress = progress;
             mission.completed = completed;
-            data.sharedMissions.put(instanceId, mission);
+            mission.version = missionTag.getLong("version");
+            sharedMissions.put(instanceId, mission);
         }
 
         // 加载激活状态
         CompoundTag activationsTag = tag.getCompound("activations");
         activationsTag.getAllKeys().forEach(playerIdStr -> {
             UUID playerId = UUID.fromString(playerIdStr);
-            ListTag list = activationsTag.getList(playerIdStr, 8);
-            Set<String> activatedMissions = new HashSet<>();
-            for (int i = 0; i < list.size(); i++) {
-                activatedMissions.add(list.getString(i));
-            }
-            data.playerActivations.put(playerId, activatedMissions);
+            if (!activationsTag.contains(playerIdStr, Tag.TAG_INT_ARRAY)) return;
+            playerActivations.put(playerId, new IntOpenHashSet(activationsTag.getIntArray(playerIdStr)));
         });
+    }
+
+    public static WorldSharedMissionData load(CompoundTag tag) {
+        WorldSharedMissionData data = new WorldSharedMissionData();
+
+        if (tag.contains("epoch")) {
+            data.epoch = tag.getLong("epoch");
+        }
+        data.versionCounter = tag.getLong("version");
+        data.removalVersion = tag.getLong("removalVersion");
 
+        // 旧版本把所有数据保存在主文件中，读取后写入分片
+        if (tag.contains("sharedMissions") || tag.contains("activations")) {
+            data.loadEntries(tag);
+            data.dirtyShards.set(0, SHARD_COUNT);
+            data.legacyPending = true;
+            data.setDirty();
+        }
         return data;
     }
 
-    private void distributeRewards(ServerLevel level, String missionId) {
-        for (Map.Entry<UUID, Set<String>> entry : playerActivations.entrySet()) {
-            if (entry.getValue().contains(missionId)) {
-                // 通过服务器玩家列表获取玩家
-                ServerPlayer player = level.getServer().getPlayerList().getPlayer(entry.getKey());
-                if (player != null) {
-                    // 发放奖励
-                    player.sendSystemMessage(Component.literal("任务完成奖励!"));
-                    // 这里可以添加实际奖励逻辑，如给予物品、经验等
-                }
+    private void distributeRewards(ServerLevel level, int missionId) {
+        // 订阅者即激活了该任务的在线玩家
+        for (UUID playerId : MissionSubscriptions.getSubscribers(missionId)) {
+            // 通过服务器玩家列表获取玩家
+            ServerPlayer player = level.getServer().getPlayerList().getPlayer(playerId);
+            if (player != null) {
+                // 发放奖励
+                player.sendSystemMessage(Component.literal("任务完成奖励!"));
+                // 这里可以添加实际奖励逻辑，如给予物品、经验等
             }
         }
     }
 
     // 添加获取任务方法
-    public SharedMission getSharedMission(String missionId) {
+    public SharedMission getSharedMission(int missionId) {
         return sharedMissions.get(missionId);
     }
 }
\ No newline at end of file
@@ -1,6 +1,10 @@
 package com.catoxide.missioncore.trigger;
 
+import com.catoxide.missioncore.DebugConfig;
+import com.catoxide.missioncore.MissionCore;
 import com.google.gson.JsonObject;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.level.block.Block;
@@ -16,26 +20,47 @@ public class BlockBreakTrigger implements MissionTrigger {
         return new BlockBreakTrigger();
     }
 
+    @Override
+    public Class<? extends Event> getEventType() {
+        return BlockEvent.BreakEvent.class;
+    }
+
     @Override
     public void configure(JsonObject config) {
         String blockId = config.get("block").getAsString();
         requiredBlock = ForgeRegistries.BLOCKS.getValue(new ResourceLocation(blockId));
 
-        // 添加调试日志
         if (requiredBlock == null) {
-            System.err.println("BlockBreakTrigger: 无法找到方块: " + blockId);
+            MissionCore.LOGGER.warn("BlockBreakTrigger: 无法找到方块: {}", blockId);
         } else {
-            System.out.println("BlockBreakTrigger: 配置方块 " + blockId + " 成功");
+            MissionCore.LOGGER.debug("BlockBreakTrigger: 配置方块 {} 成功", blockId);
         }
     }
 
+    public Block getRequiredBlock() {
+        return requiredBlock;
+    }
+
+    // 编译缓存只在注册表指纹一致时使用，可以直接保存数字ID
+    @Override
+    public boolean writeCompiled(FriendlyByteBuf buffer) {
+        if (requiredBlock == null) return false;
+        buffer.writeVarInt(BuiltInRegistries.BLOCK.getId(requiredBlock));
+        return true;
+    }
+
+    @Override
+    public boolean readCompiled(FriendlyByteBuf buffer) {
+        requiredBlock = BuiltInRegistries.BLOCK.byId(buffer.readVarInt());
+        return true;
+    }
+
     @Override
     public boolean shouldTrigger(Player player, Event event) {
         if (!(event instanceof BlockEvent.BreakEvent breakEvent)) return false;
 
-        // 添加调试日志
         boolean matches = breakEvent.getState().getBlock() == requiredBlock;
-        if (matches) {
+        if (matches && DebugConfig.traceTriggers) {
             System.out.println("BlockBreakTrigger: 玩家 " + player.getName().getString() +
                     " 破坏了方块 " + ForgeRegistries.BLOCKS.getKey(requiredBlock));
         }
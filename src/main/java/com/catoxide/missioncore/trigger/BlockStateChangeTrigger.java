@@ -1,7 +1,12 @@
 package com.catoxide.missioncore.trigger;
 
+import com.catoxide.missioncore.DebugConfig;
+import com.catoxide.missioncore.MissionCore;
 import com.google.gson.JsonObject;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.level.Level;
@@ -12,24 +17,25 @@ import net.minecraftforge.event.level.BlockEvent;
 import net.minecraftforge.eventbus.api.Event;
 import net.minecraftforge.registries.ForgeRegistries;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
 
 public class BlockStateChangeTrigger implements MissionTrigger {
     private Block requiredBlock;
     private String targetProperty;
     private String targetValue;
 
-    // 用于跟踪上次处理的事件，防止重复触发
-    private final Map<BlockPos, Long> lastProcessedTimes = new HashMap<>();
-    private static final long COOLDOWN_MS = 100; // 100毫秒冷却时间
+    // 配置时预先解析出的所有满足条件的方块状态，匹配时只需一次集合查找
+    private final ReferenceOpenHashSet<BlockState> matchingStates = new ReferenceOpenHashSet<>();
 
     @Override
     public MissionTrigger createNewInstance() {
         return new BlockStateChangeTrigger();
     }
 
+    @Override
+    public Class<? extends Event> getEventType() {
+        return BlockEvent.NeighborNotifyEvent.class;
+    }
+
     @Override
     public void configure(JsonObject config) {
         // 获取要监听的方块
@@ -46,70 +52,88 @@ public class BlockStateChangeTrigger implements MissionTrigger {
             targetValue = config.get("value").getAsString();
         }
 
-        // 添加调试日志
+        // 预编译匹配的方块状态
+        matchingStates.clear();
+        if (requiredBlock != null) {
+            compileMatchingStates();
+        }
+
         if (requiredBlock == null) {
-            System.err.println("BlockStateChangeTrigger: 无法找到方块: " + blockId);
+            MissionCore.LOGGER.warn("BlockStateChangeTrigger: 无法找到方块: {}", blockId);
         } else {
-            System.out.println("BlockStateChangeTrigger: 配置方块 " + ForgeRegistries.BLOCKS.getKey(requiredBlock) +
-                    (targetProperty != null ? " 属性 " + targetProperty : "") +
-                    (targetValue != null ? " 值 " + targetValue : "") + " 成功");
+            MissionCore.LOGGER.debug("BlockStateChangeTrigger: 配置方块 {} 属性 {} 值 {} 成功",
+                    ForgeRegistries.BLOCKS.getKey(requiredBlock), targetProperty, targetValue);
         }
     }
 
-    @Override
-    public boolean shouldTrigger(Player player, Event event) {
-        if (!(event instanceof BlockEvent.NeighborNotifyEvent neighborEvent)) return false;
-        if (!(neighborEvent.getLevel() instanceof Level level)) return false;
-
-        BlockPos pos = neighborEvent.getPos();
-        BlockState state = level.getBlockState(pos);
+    public Block getRequiredBlock() {
+        return requiredBlock;
+    }
 
-        // 检查是否为指定的方块
-        if (state.getBlock() != requiredBlock) return false;
+    // 缓存预编译的方块状态ID，加载时无需再遍历方块的所有状态
+    @Override
+    public boolean writeCompiled(FriendlyByteBuf buffer) {
+        if (requiredBlock == null) return false;
+        buffer.writeVarInt(BuiltInRegistries.BLOCK.getId(requiredBlock));
+        buffer.writeNullable(targetProperty, FriendlyByteBuf::writeUtf);
+        buffer.writeNullable(targetValue, FriendlyByteBuf::writeUtf);
+        buffer.writeVarInt(matchingStates.size());
+        for (BlockState state : matchingStates) {
+            buffer.writeVarInt(Block.getId(state));
+        }
+        return true;
+    }
 
-        // 防止重复触发 - 添加冷却时间
-        long currentTime = System.currentTimeMillis();
-        Long lastTime = lastProcessedTimes.get(pos);
-        if (lastTime != null && currentTime - lastTime < COOLDOWN_MS) {
-            return false;
+    @Override
+    public boolean readCompiled(FriendlyByteBuf buffer) {
+        requiredBlock = BuiltInRegistries.BLOCK.byId(buffer.readVarInt());
+        targetProperty = buffer.readNullable(FriendlyByteBuf::readUtf);
+        targetValue = buffer.readNullable(FriendlyByteBuf::readUtf);
+        matchingStates.clear();
+        int count = buffer.readVarInt();
+        for (int i = 0; i < count; i++) {
+            matchingStates.add(Block.stateById(buffer.readVarInt()));
         }
-        lastProcessedTimes.put(pos, currentTime);
+        return true;
+    }
 
-        // 如果没有指定属性，只要方块变化就触发
+    private void compileMatchingStates() {
+        // 如果没有指定属性，方块的任意状态都匹配
         if (targetProperty == null) {
-            System.out.println("BlockStateChangeTrigger: 方块 " + ForgeRegistries.BLOCKS.getKey(requiredBlock) +
-                    " 状态变化，位置 " + pos);
-            return true;
+            matchingStates.addAll(requiredBlock.getStateDefinition().getPossibleStates());
+            return;
         }
 
-        // 检查指定的属性
-        Optional<Property<?>> property = state.getProperties().stream()
-                .filter(p -> p.getName().equals(targetProperty))
-                .findFirst();
+        Property<?> property = requiredBlock.getStateDefinition().getProperty(targetProperty);
+        if (property == null) {
+            MissionCore.LOGGER.warn("BlockStateChangeTrigger: 方块 {} 没有属性 {}",
+                    ForgeRegistries.BLOCKS.getKey(requiredBlock), targetProperty);
+            return;
+        }
 
-        if (!property.isPresent()) {
-            System.out.println("BlockStateChangeTrigger: 方块 " + ForgeRegistries.BLOCKS.getKey(requiredBlock) +
-                    " 没有属性 " + targetProperty);
-            return false;
+        // 如果没有指定期望值，只要属性存在就匹配；否则只保留属性值相符的状态
+        for (BlockState state : requiredBlock.getStateDefinition().getPossibleStates()) {
+            if (targetValue == null || state.getValue(property).toString().equals(targetValue)) {
+                matchingStates.add(state);
+            }
         }
+    }
+
+    @Override
+    public boolean shouldTrigger(Player player, Event event) {
+        if (!(event instanceof BlockEvent.NeighborNotifyEvent neighborEvent)) return false;
+        if (!(neighborEvent.getLevel() instanceof Level level)) return false;
 
-        // 获取属性当前值
-        String currentValue = state.getValue(property.get()).toString();
+        BlockPos pos = neighborEvent.getPos();
+        BlockState state = level.getBlockState(pos);
 
-        // 如果没有指定期望值，只要属性存在就触发
-        if (targetValue == null) {
-            System.out.println("BlockStateChangeTrigger: 方块 " + ForgeRegistries.BLOCKS.getKey(requiredBlock) +
-                    " 属性 " + targetProperty + " 变化，当前值: " + currentValue);
-            return true;
-        }
+        // 检查方块及属性是否满足条件
+        if (!matchingStates.contains(state)) return false;
 
-        // 检查属性值是否匹配
-        boolean matches = currentValue.equals(targetValue);
-        if (matches) {
+        if (DebugConfig.traceTriggers) {
             System.out.println("BlockStateChangeTrigger: 方块 " + ForgeRegistries.BLOCKS.getKey(requiredBlock) +
-                    " 属性 " + targetProperty + " 达到目标值: " + targetValue);
+                    " 状态变化，位置 " + pos + "，状态 " + state);
         }
-
-        return matches;
+        return true;
     }
 }
\ No newline at end of file
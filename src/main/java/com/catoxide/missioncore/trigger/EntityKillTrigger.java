@@ -1,6 +1,8 @@
 package com.catoxide.missioncore.trigger;
 
 import com.google.gson.JsonObject;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.entity.EntityType;
 import net.minecraft.world.entity.player.Player;
@@ -16,6 +18,27 @@ public class EntityKillTrigger implements MissionTrigger {
         return new EntityKillTrigger();
     }
 
+    @Override
+    public Class<? extends Event> getEventType() {
+        return LivingDeathEvent.class;
+    }
+
+    public EntityType<?> getRequiredEntity() {
+        return requiredEntity;
+    }
+
+    @Override
+    public boolean writeCompiled(FriendlyByteBuf buffer) {
+        buffer.writeVarInt(BuiltInRegistries.ENTITY_TYPE.getId(requiredEntity));
+        return true;
+    }
+
+    @Override
+    public boolean readCompiled(FriendlyByteBuf buffer) {
+        requiredEntity = BuiltInRegistries.ENTITY_TYPE.byId(buffer.readVarInt());
+        return true;
+    }
+
     @Override
     public boolean shouldTrigger(Player player, Event event) {
         if (!(event instanceof LivingDeathEvent deathEvent)) return false;
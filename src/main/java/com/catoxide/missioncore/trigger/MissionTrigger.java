@@ -1,6 +1,7 @@
 package com.catoxide.missioncore.trigger;
 
 import com.google.gson.JsonObject;
+import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.world.entity.player.Player;
 import net.minecraftforge.eventbus.api.Event;
 
@@ -10,4 +11,29 @@ public interface MissionTrigger {
 
     // 添加创建新实例的方法
     MissionTrigger createNewInstance();
-}
\ No newline at end of file
+
+    // 触发器消费的事件类型，用于按事件类型分发；返回 Event.class 表示接收所有事件
+    default Class<? extends Event> getEventType() {
+        return Event.class;
+    }
+
+    // 每个 (玩家, 任务实例) 需要的 long 状态槽位数，由分发索引在激活时分配、取消激活时回收
+    default int getStateSlots() {
+        return 0;
+    }
+
+    // 带 (玩家, 任务实例) 状态的触发检查，未声明槽位的触发器默认忽略状态
+    default boolean shouldTrigger(Player player, Event event, TriggerState state) {
+        return shouldTrigger(player, event);
+    }
+
+    // 将 configure 后的结果写入编译缓存，返回 false 表示不支持，加载缓存时改为重新 configure
+    default boolean writeCompiled(FriendlyByteBuf buffer) {
+        return false;
+    }
+
+    // 从编译缓存恢复 configure 后的结果，返回 false 时改为重新 configure
+    default boolean readCompiled(FriendlyByteBuf buffer) {
+        return false;
+    }
+}
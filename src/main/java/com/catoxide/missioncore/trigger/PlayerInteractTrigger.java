@@ -1,6 +1,9 @@
 package com.catoxide.missioncore.trigger;
 
+import com.catoxide.missioncore.DebugConfig;
+import com.catoxide.missioncore.MissionCore;
 import com.google.gson.JsonObject;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import net.minecraft.core.BlockPos;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.tags.TagKey;
@@ -38,6 +41,7 @@ public class PlayerInteractTrigger implements MissionTrigger {
     private Item requiredItem;
     private Block requiredBlock;
     private Map<String, String> requiredBlockState; // 新增：方块状态条件
+    private final ReferenceOpenHashSet<BlockState> matchingStates = new ReferenceOpenHashSet<>(); // 预编译的满足状态条件的方块状态
     private TagKey<Block> requiredBlockTag; // 新增：方块标签
     private InteractionType interactionType;
     private HandType handType;
@@ -46,15 +50,20 @@ public class PlayerInteractTrigger implements MissionTrigger {
     private boolean requireBlockState; // 新增：是否需要检查方块状态
     private boolean requireBlockTag;   // 新增：是否需要检查方块标签
 
-    // 用于防止重复触发
-    private final Map<String, Long> lastTriggerTimes = new HashMap<>();
-    private static final long COOLDOWN_MS = 200; // 200毫秒冷却时间
+    // 用于防止重复触发，冷却结束的游戏刻保存在每个 (玩家, 任务实例) 的状态槽位中
+    private static final int COOLDOWN_TICKS = 4; // 4刻（200毫秒）冷却时间
+    private static final int COOLDOWN_SLOT = 0;
 
     @Override
     public MissionTrigger createNewInstance() {
         return new PlayerInteractTrigger();
     }
 
+    @Override
+    public Class<? extends Event> getEventType() {
+        return PlayerInteractEvent.class;
+    }
+
     @Override
     public void configure(JsonObject config) {
         // 解析交互类型
@@ -100,10 +109,10 @@ public class PlayerInteractTrigger implements MissionTrigger {
             String itemId = config.get("item").getAsString();
             requiredItem = ForgeRegistries.ITEMS.getValue(ResourceLocation.parse(itemId));
             if (requiredItem == null) {
-                System.err.println("PlayerInteractTrigger: 无法找到物品: " + itemId);
+                MissionCore.LOGGER.warn("PlayerInteractTrigger: 无法找到物品: {}", itemId);
                 requireItem = false;
             } else {
-                System.out.println("PlayerInteractTrigger: 配置物品 " + ForgeRegistries.ITEMS.getKey(requiredItem) + " 成功");
+                MissionCore.LOGGER.debug("PlayerInteractTrigger: 配置物品 {} 成功", ForgeRegistries.ITEMS.getKey(requiredItem));
             }
         }
 
@@ -113,10 +122,10 @@ public class PlayerInteractTrigger implements MissionTrigger {
             String blockId = config.get("block").getAsString();
             requiredBlock = ForgeRegistries.BLOCKS.getValue(ResourceLocation.parse(blockId));
             if (requiredBlock == null) {
-                System.err.println("PlayerInteractTrigger: 无法找到方块: " + blockId);
+                MissionCore.LOGGER.warn("PlayerInteractTrigger: 无法找到方块: {}", blockId);
                 requireBlock = false;
             } else {
-                System.out.println("PlayerInteractTrigger: 配置方块 " + ForgeRegistries.BLOCKS.getKey(requiredBlock) + " 成功");
+                MissionCore.LOGGER.debug("PlayerInteractTrigger: 配置方块 {} 成功", ForgeRegistries.BLOCKS.getKey(requiredBlock));
             }
         }
 
@@ -128,7 +137,8 @@ public class PlayerInteractTrigger implements MissionTrigger {
             for (Map.Entry<String, com.google.gson.JsonElement> entry : stateObj.entrySet()) {
                 requiredBlockState.put(entry.getKey(), entry.getValue().getAsString());
             }
-            System.out.println("PlayerInteractTrigger: 配置方块状态 " + requiredBlockState + " 成功");
+            compileMatchingStates();
+            MissionCore.LOGGER.debug("PlayerInteractTrigger: 配置方块状态 {} 成功，匹配 {} 个状态", requiredBlockState, matchingStates.size());
         }
 
         // 新增：解析方块标签
@@ -136,32 +146,52 @@ public class PlayerInteractTrigger implements MissionTrigger {
         if (requireBlockTag) {
             String tagId = config.get("block_tag").getAsString();
             requiredBlockTag = BlockTags.create(ResourceLocation.parse(tagId));
-            System.out.println("PlayerInteractTrigger: 配置方块标签 " + tagId + " 成功");
+            MissionCore.LOGGER.debug("PlayerInteractTrigger: 配置方块标签 {} 成功", tagId);
         }
 
-        System.out.println("PlayerInteractTrigger: 配置完成 - 交互类型: " + interactionType +
-                ", 手部类型: " + handType +
-                (requireItem ? ", 物品: " + ForgeRegistries.ITEMS.getKey(requiredItem) : "") +
-                (requireBlock ? ", 方块: " + ForgeRegistries.BLOCKS.getKey(requiredBlock) : "") +
-                (requireBlockState ? ", 方块状态: " + requiredBlockState : "") +
-                (requireBlockTag ? ", 方块标签: " + requiredBlockTag.location() : ""));
+        if (MissionCore.LOGGER.isDebugEnabled()) {
+            MissionCore.LOGGER.debug("PlayerInteractTrigger: 配置完成 - 交互类型: " + interactionType +
+                    ", 手部类型: " + handType +
+                    (requireItem ? ", 物品: " + ForgeRegistries.ITEMS.getKey(requiredItem) : "") +
+                    (requireBlock ? ", 方块: " + ForgeRegistries.BLOCKS.getKey(requiredBlock) : "") +
+                    (requireBlockState ? ", 方块状态: " + requiredBlockState : "") +
+                    (requireBlockTag ? ", 方块标签: " + requiredBlockTag.location() : ""));
+        }
     }
 
     @Override
-    public boolean shouldTrigger(Player player, Event event) {
-        if (!(event instanceof PlayerInteractEvent)) return false;
+    public int getStateSlots() {
+        return 1;
+    }
 
-        PlayerInteractEvent interactEvent = (PlayerInteractEvent) event;
+    @Override
+    public boolean shouldTrigger(Player player, Event event, TriggerState state) {
+        if (!matches(player, event)) return false;
 
-        // 防止重复触发
-        String triggerKey = player.getStringUUID() + "-" + System.currentTimeMillis() / COOLDOWN_MS;
-        if (lastTriggerTimes.containsKey(triggerKey)) {
+        // 防止重复触发（例如主手和副手各触发一次交互事件）
+        long gameTime = player.level().getGameTime();
+        if (state.get(COOLDOWN_SLOT) > gameTime) {
             return false;
         }
-        lastTriggerTimes.put(triggerKey, System.currentTimeMillis());
+        state.set(COOLDOWN_SLOT, gameTime + COOLDOWN_TICKS);
+
+        trace(player, (PlayerInteractEvent) event);
+        return true;
+    }
 
-        // 清理过期的触发记录
-        cleanupOldTriggers();
+    // 没有状态槽位的调用方不做防抖
+    @Override
+    public boolean shouldTrigger(Player player, Event event) {
+        if (!matches(player, event)) return false;
+
+        trace(player, (PlayerInteractEvent) event);
+        return true;
+    }
+
+    private boolean matches(Player player, Event event) {
+        if (!(event instanceof PlayerInteractEvent)) return false;
+
+        PlayerInteractEvent interactEvent = (PlayerInteractEvent) event;
 
         // 检查交互类型
         if (!checkInteractionType(interactEvent)) {
@@ -183,16 +213,20 @@ public class PlayerInteractTrigger implements MissionTrigger {
             return false;
         }
 
-        // 所有条件都满足
-        System.out.println("PlayerInteractTrigger: 玩家 " + player.getName().getString() +
-                " 触发交互 - 类型: " + interactEvent.getClass().getSimpleName() +
-                ", 手: " + interactEvent.getHand() +
-                (requireItem ? ", 物品: " + getItemName(player.getItemInHand(interactEvent.getHand())) : "") +
-                (requireBlock || requireBlockState || requireBlockTag ? ", 方块: " + getBlockName(interactEvent) : ""));
-
         return true;
     }
 
+    // 所有条件都满足，仅在开启调试追踪时构建诊断信息
+    private void trace(Player player, PlayerInteractEvent interactEvent) {
+        if (DebugConfig.traceTriggers) {
+            System.out.println("PlayerInteractTrigger: 玩家 " + player.getName().getString() +
+                    " 触发交互 - 类型: " + interactEvent.getClass().getSimpleName() +
+                    ", 手: " + interactEvent.getHand() +
+                    (requireItem ? ", 物品: " + getItemName(player.getItemInHand(interactEvent.getHand())) : "") +
+                    (requireBlock || requireBlockState || requireBlockTag ? ", 方块: " + getBlockName(interactEvent) : ""));
+        }
+    }
+
     private boolean checkInteractionType(PlayerInteractEvent event) {
         // 检查事件类型是否匹配配置
         switch (interactionType) {
@@ -232,24 +266,11 @@ public class PlayerInteractTrigger implements MissionTrigger {
     }
 
     private boolean checkBlock(PlayerInteractEvent event) {
-        // 尝试获取方块位置和世界
-        BlockPos pos = null;
-        Level level = null;
-
-        if (event.getClass().getSimpleName().contains("ClickBlock")) {
-            try {
-                java.lang.reflect.Method getPosMethod = event.getClass().getMethod("getPos");
-                pos = (BlockPos) getPosMethod.invoke(event);
-                java.lang.reflect.Method getLevelMethod = event.getClass().getMethod("getLevel");
-                level = (Level) getLevelMethod.invoke(event);
-            } catch (Exception e) {
-                System.err.println("PlayerInteractTrigger: 无法获取方块位置信息: " + e.getMessage());
-                return false;
-            }
-        }
-
-        if (pos == null || level == null) return false;
+        // 只有点击方块的事件带有方块位置
+        BlockPos pos = getClickedPos(event);
+        if (pos == null) return false;
 
+        Level level = event.getLevel();
         BlockState state = level.getBlockState(pos);
 
         // 1. 检查方块类型（原有逻辑）
@@ -271,67 +292,81 @@ public class PlayerInteractTrigger implements MissionTrigger {
     }
 
     private boolean checkBlockState(BlockState state) {
-        for (Map.Entry<String, String> entry : requiredBlockState.entrySet()) {
-            String propertyName = entry.getKey();
-            String expectedValue = entry.getValue();
+        return matchingStates.contains(state);
+    }
 
-            Property<?> property = state.getBlock().getStateDefinition().getProperty(propertyName);
-            if (property == null) {
-                System.err.println("PlayerInteractTrigger: 方块 " + ForgeRegistries.BLOCKS.getKey(state.getBlock()) + " 没有属性: " + propertyName);
-                return false;
+    // 配置时把方块状态条件展开为所有满足条件的方块状态；未指定方块时遍历所有已注册方块
+    private void compileMatchingStates() {
+        matchingStates.clear();
+        if (requireBlock) {
+            addMatchingStates(requiredBlock);
+        } else {
+            for (Block block : ForgeRegistries.BLOCKS) {
+                addMatchingStates(block);
             }
+        }
+    }
 
-            Comparable<?> actualValue = state.getValue(property);
-            if (!actualValue.toString().equals(expectedValue)) {
-                return false;
+    private void addMatchingStates(Block block) {
+        Property<?>[] properties = new Property<?>[requiredBlockState.size()];
+        String[] expectedValues = new String[properties.length];
+        int i = 0;
+        for (Map.Entry<String, String> entry : requiredBlockState.entrySet()) {
+            properties[i] = block.getStateDefinition().getProperty(entry.getKey());
+            if (properties[i] == null) {
+                if (requireBlock) {
+                    MissionCore.LOGGER.warn("PlayerInteractTrigger: 方块 {} 没有属性: {}", ForgeRegistries.BLOCKS.getKey(block), entry.getKey());
+                }
+                return;
             }
+            expectedValues[i++] = entry.getValue();
         }
-        return true;
-    }
 
-    private void cleanupOldTriggers() {
-        // 清理超过冷却时间两倍的旧记录
-        long currentTime = System.currentTimeMillis();
-        lastTriggerTimes.entrySet().removeIf(entry ->
-                currentTime - entry.getValue() > COOLDOWN_MS * 2
-        );
+        for (BlockState state : block.getStateDefinition().getPossibleStates()) {
+            boolean matches = true;
+            for (int j = 0; j < properties.length && matches; j++) {
+                matches = state.getValue(properties[j]).toString().equals(expectedValues[j]);
+            }
+            if (matches) {
+                matchingStates.add(state);
+            }
+        }
     }
 
     private String getItemName(ItemStack itemStack) {
         return itemStack.isEmpty() ? "空手" : ForgeRegistries.ITEMS.getKey(itemStack.getItem()).toString();
     }
 
+    // 按事件子类型直接取点击的方块位置，非方块交互返回 null
+    @Nullable
+    private static BlockPos getClickedPos(PlayerInteractEvent event) {
+        if (event instanceof PlayerInteractEvent.RightClickBlock rightClick) {
+            return rightClick.getPos();
+        }
+        if (event instanceof PlayerInteractEvent.LeftClickBlock leftClick) {
+            return leftClick.getPos();
+        }
+        return null;
+    }
+
     private String getBlockName(PlayerInteractEvent event) {
-        try {
-            if (event.getClass().getSimpleName().contains("ClickBlock")) {
-                java.lang.reflect.Method getPosMethod = event.getClass().getMethod("getPos");
-                BlockPos pos = (BlockPos) getPosMethod.invoke(event);
-
-                java.lang.reflect.Method getLevelMethod = event.getClass().getMethod("getLevel");
-                Level level = (Level) getLevelMethod.invoke(event);
-
-                if (pos != null && level != null) {
-                    BlockState state = level.getBlockState(pos);
-                    String blockName = ForgeRegistries.BLOCKS.getKey(state.getBlock()).toString();
-
-                    // 添加状态信息
-                    if (requireBlockState && !state.getProperties().isEmpty()) {
-                        StringBuilder stateInfo = new StringBuilder("[");
-                        for (Property<?> prop : state.getProperties()) {
-                            if (stateInfo.length() > 1) stateInfo.append(", ");
-                            stateInfo.append(prop.getName()).append("=").append(state.getValue(prop));
-                        }
-                        stateInfo.append("]");
-                        blockName += stateInfo.toString();
-                    }
-
-                    return blockName;
-                }
+        BlockPos pos = getClickedPos(event);
+        if (pos == null) return "未知方块";
+
+        BlockState state = event.getLevel().getBlockState(pos);
+        String blockName = ForgeRegistries.BLOCKS.getKey(state.getBlock()).toString();
+
+        // 添加状态信息
+        if (requireBlockState && !state.getProperties().isEmpty()) {
+            StringBuilder stateInfo = new StringBuilder("[");
+            for (Property<?> prop : state.getProperties()) {
+                if (stateInfo.length() > 1) stateInfo.append(", ");
+                stateInfo.append(prop.getName()).append("=").append(state.getValue(prop));
             }
-        } catch (Exception e) {
-            // 忽略错误
+            stateInfo.append("]");
+            blockName += stateInfo.toString();
         }
 
-        return "未知方块";
+        return blockName;
     }
 }
\ No newline at end of file
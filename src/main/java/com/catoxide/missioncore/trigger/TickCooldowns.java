@@ -0,0 +1,65 @@
+package com.catoxide.missioncore.trigger;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+// 触发器共用的冷却表：以原始 long 为键（打包的 BlockPos、玩家编号等），以游戏刻计时。
+// 过期条目由时间轮按刻回收，内存只与冷却窗口内的条目数有关，热路径上不产生分配。
+public class TickCooldowns {
+    private static final int WHEEL_SIZE = 64; // 时间轮槽数，必须为2的幂且大于冷却刻数
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private final int cooldownTicks;
+    private final Long2LongOpenHashMap expiries = new Long2LongOpenHashMap(); // 键 -> 冷却结束的游戏刻
+    private final LongArrayList[] wheel = new LongArrayList[WHEEL_SIZE]; // 按到期刻分槽的键
+    private long lastTick = Long.MIN_VALUE;
+
+    public TickCooldowns(int cooldownTicks) {
+        if (cooldownTicks <= 0 || cooldownTicks >= WHEEL_SIZE) {
+            throw new IllegalArgumentException("冷却刻数必须在 1 到 " + (WHEEL_SIZE - 1) + " 之间: " + cooldownTicks);
+        }
+        this.cooldownTicks = cooldownTicks;
+        this.expiries.defaultReturnValue(Long.MIN_VALUE);
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new LongArrayList();
+        }
+    }
+
+    // 键不在冷却中时开始新的冷却并返回 true，否则返回 false
+    public boolean tryAcquire(long key, long gameTime) {
+        advance(gameTime);
+
+        if (expiries.get(key) > gameTime) return false;
+
+        long expiry = gameTime + cooldownTicks;
+        expiries.put(key, expiry);
+        wheel[(int) (expiry & WHEEL_MASK)].add(key);
+        return true;
+    }
+
+    public int size() {
+        return expiries.size();
+    }
+
+    // 回收从上次推进到当前刻之间到期的槽
+    private void advance(long gameTime) {
+        if (lastTick == Long.MIN_VALUE || gameTime < lastTick) {
+            lastTick = gameTime;
+            return;
+        }
+
+        // 长时间未访问时整个时间轮都已过期，每个槽只需处理一次
+        long from = Math.max(lastTick + 1, gameTime - WHEEL_MASK);
+        for (long tick = from; tick <= gameTime; tick++) {
+            LongArrayList slot = wheel[(int) (tick & WHEEL_MASK)];
+            for (int i = 0; i < slot.size(); i++) {
+                long key = slot.getLong(i);
+                if (expiries.get(key) <= gameTime) {
+                    expiries.remove(key);
+                }
+            }
+            slot.clear();
+        }
+        lastTick = gameTime;
+    }
+}
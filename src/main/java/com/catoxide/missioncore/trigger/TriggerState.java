@@ -0,0 +1,31 @@
+package com.catoxide.missioncore.trigger;
+
+// 单个 (玩家, 任务实例) 的触发器状态句柄，槽位下标从 0 开始，范围由触发器的 getStateSlots 决定
+public final class TriggerState {
+    public static final TriggerState EMPTY = new TriggerState(null, 0, 0);
+
+    final TriggerStateArena arena;
+    final int base;
+    final int count;
+
+    TriggerState(TriggerStateArena arena, int base, int count) {
+        this.arena = arena;
+        this.base = base;
+        this.count = count;
+    }
+
+    public long get(int slot) {
+        return arena.get(base + checkSlot(slot));
+    }
+
+    public void set(int slot, long value) {
+        arena.set(base + checkSlot(slot), value);
+    }
+
+    private int checkSlot(int slot) {
+        if (slot < 0 || slot >= count) {
+            throw new IndexOutOfBoundsException("触发器状态槽位越界: " + slot + " / " + count);
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,64 @@
+package com.catoxide.missioncore.trigger;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.Arrays;
+
+// 触发器状态槽位池：每个 (玩家, 任务实例) 按触发器声明的槽位数分配一段连续的 long，
+// 所有状态存放在同一个原始数组中，事件处理时按下标读写，不需要按事件查表
+public class TriggerStateArena {
+    public static final int MAX_SLOTS = 8; // 单个触发器最多可声明的槽位数
+
+    private long[] data = new long[256];
+    private int top = 0;
+    private final IntArrayList[] freeLists = new IntArrayList[MAX_SLOTS + 1]; // 按槽位数回收的起始下标
+
+    public TriggerStateArena() {
+        for (int i = 1; i <= MAX_SLOTS; i++) {
+            freeLists[i] = new IntArrayList();
+        }
+    }
+
+    // 分配 count 个清零的槽位，返回状态句柄
+    public TriggerState allocate(int count) {
+        if (count <= 0) return TriggerState.EMPTY;
+        if (count > MAX_SLOTS) {
+            throw new IllegalArgumentException("触发器状态槽位数不能超过 " + MAX_SLOTS + ": " + count);
+        }
+
+        int base;
+        IntArrayList free = freeLists[count];
+        if (!free.isEmpty()) {
+            base = free.popInt();
+            Arrays.fill(data, base, base + count, 0L);
+        } else {
+            if (top + count > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, top + count));
+            }
+            base = top;
+            top += count;
+        }
+        return new TriggerState(this, base, count);
+    }
+
+    // 归还槽位以便复用
+    public void release(TriggerState state) {
+        if (state.count == 0 || state.arena != this) return;
+        freeLists[state.count].add(state.base);
+    }
+
+    public void clear() {
+        top = 0;
+        for (int i = 1; i <= MAX_SLOTS; i++) {
+            freeLists[i].clear();
+        }
+    }
+
+    long get(int index) {
+        return data[index];
+    }
+
+    void set(int index, long value) {
+        data[index] = value;
+    }
+}